@@ -0,0 +1,267 @@
+package github.com.miguelfreelancer56577.azure_storage_image.admission;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.http.HttpStatus;
+
+import github.com.miguelfreelancer56577.azure_storage_image.config.BlobProperties;
+import github.com.miguelfreelancer56577.azure_storage_image.exception.BlobException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+/**
+ * Class used to admit or reject the requests of the routes before they take any memory, disk or thread.
+ *
+ * A request is admitted while the requests at the same time are under the limit, the client has less than
+ * per-client-limit requests and, for the uploads, the bytes of the uploads at the same time fit in the upload budget.
+ *
+ * The limit is adjusted every adjust-interval with AIMD from the time of the calls against azure, read from
+ * the blob.azure.calls timers of latency-operations: it's cut by decrease-ratio when their average time is over
+ * latency-target, so the service sends less work to a slow storage, and it grows by one when the requests reached it.
+ *
+ * @author mangelt
+ *
+ */
+@Slf4j
+public class AdmissionController
+{
+
+	protected final BlobProperties.Admission settings;
+
+	protected final long unknownUploadBytes;
+
+	protected final MeterRegistry latencies;
+
+	protected final AtomicInteger limit;
+
+	protected final AtomicInteger inFlight = new AtomicInteger();
+
+	protected final AtomicInteger peak = new AtomicInteger();
+
+	protected final AtomicLong uploadBytes = new AtomicLong();
+
+	protected final Map<String, AtomicInteger> clients = new ConcurrentHashMap<>();
+
+	protected final Counter rejectedLimit;
+
+	protected final Counter rejectedClient;
+
+	protected final Counter rejectedUpload;
+
+	protected long lastCount;
+
+	protected double lastTime;
+
+	protected Disposable adjuster;
+
+	/**
+	 * @param settings: BlobProperties.Admission
+	 * @param unknownUploadBytes: bytes counted for an upload without Content-Length
+	 * @param latencies: MeterRegistry with the blob.azure.calls timers
+	 * @param registry: MeterRegistry where the meters of the admission are registered
+	 */
+	public AdmissionController(BlobProperties.Admission settings, long unknownUploadBytes, MeterRegistry latencies,
+			MeterRegistry registry)
+	{
+		this.settings = settings;
+		this.unknownUploadBytes = unknownUploadBytes;
+		this.latencies = latencies;
+		this.limit = new AtomicInteger(Math.max(settings.getMinLimit(), Math.min(settings.getInitialLimit(), settings.getMaxLimit())));
+
+		Gauge.builder("blob.admission.limit", this.limit, AtomicInteger::get)
+				.description("Requests of the routes admitted at the same time")
+				.register(registry);
+		Gauge.builder("blob.admission.in.flight", this.inFlight, AtomicInteger::get)
+				.description("Requests of the routes admitted and not finished")
+				.register(registry);
+		Gauge.builder("blob.admission.upload.bytes", this.uploadBytes, AtomicLong::get)
+				.description("Bytes of the uploads admitted and not finished")
+				.baseUnit("bytes")
+				.register(registry);
+
+		this.rejectedLimit = this.rejected(registry, "limit");
+		this.rejectedClient = this.rejected(registry, "client");
+		this.rejectedUpload = this.rejected(registry, "upload-budget");
+	}
+
+	/**
+	 * Start adjusting the limit every adjust-interval
+	 */
+	public void start()
+	{
+		this.adjuster = Flux.interval(this.settings.getAdjustInterval())
+				.onBackpressureDrop()
+				.subscribe(tick -> this.adjust());
+	}
+
+	/**
+	 * Stop adjusting the limit
+	 */
+	public void stop()
+	{
+		if (this.adjuster != null)
+		{
+			this.adjuster.dispose();
+		}
+	}
+
+	/**
+	 * Admit a request, the permit must be released once the response is sent
+	 *
+	 * @param client: String address of the client
+	 * @param uploadLength: long Content-Length of an upload, -1 when it's unknown, 0 when it isn't an upload
+	 * @return Permit
+	 * @throws BlobException with a 503 status code when the service is busy or a 429 when the client is
+	 */
+	public Permit acquire(String client, long uploadLength)
+	{
+		int current = this.inFlight.incrementAndGet();
+
+		if (current > this.limit.get())
+		{
+			this.inFlight.decrementAndGet();
+			this.rejectedLimit.increment();
+			throw new BlobException(HttpStatus.SERVICE_UNAVAILABLE, "The service is busy, try again later.");
+		}
+
+		this.peak.accumulateAndGet(current, Math::max);
+
+		if (this.clients.compute(client, (key, count) -> count == null ? new AtomicInteger(1) : AdmissionController.increment(count))
+				.get() > this.settings.getPerClientLimit())
+		{
+			this.releaseClient(client);
+			this.inFlight.decrementAndGet();
+			this.rejectedClient.increment();
+			throw new BlobException(HttpStatus.TOO_MANY_REQUESTS, "Too many requests at the same time, try again later.");
+		}
+
+		long bytes = uploadLength < 0 ? this.unknownUploadBytes : uploadLength;
+
+		if (bytes > 0)
+		{
+			long total = this.uploadBytes.addAndGet(bytes);
+
+			// a single upload bigger than the budget is admitted when it's alone
+			if (total > this.settings.getUploadBudget() && total != bytes)
+			{
+				this.uploadBytes.addAndGet(-bytes);
+				this.releaseClient(client);
+				this.inFlight.decrementAndGet();
+				this.rejectedUpload.increment();
+				throw new BlobException(HttpStatus.SERVICE_UNAVAILABLE, "Too many uploads at the same time, try again later.");
+			}
+		}
+
+		return new Permit(client, bytes);
+	}
+
+	/**
+	 * Adjust the limit with the time of the calls against azure since the last adjust
+	 */
+	protected void adjust()
+	{
+		long count = 0;
+		double time = 0;
+
+		for (String operation : this.settings.getLatencyOperations())
+		{
+			for (Timer timer : this.latencies.find("blob.azure.calls").tag("operation", operation).timers())
+			{
+				count += timer.count();
+				time += timer.totalTime(TimeUnit.MILLISECONDS);
+			}
+		}
+
+		long calls = count - this.lastCount;
+		double average = calls > 0 ? (time - this.lastTime) / calls : 0;
+		int peak = this.peak.getAndSet(this.inFlight.get());
+		int current = this.limit.get();
+
+		this.lastCount = count;
+		this.lastTime = time;
+
+		if (calls > 0 && average > this.settings.getLatencyTarget().toMillis())
+		{
+			int next = Math.max(this.settings.getMinLimit(), (int)(current * this.settings.getDecreaseRatio()));
+			if (next != current)
+			{
+				log.warn("AZURE CALLS TAKE {} MS ON AVERAGE, ADMISSION LIMIT CUT FROM {} TO {}", (long)average, current, next);
+			}
+			this.limit.set(next);
+		}
+		else if (peak >= current && current < this.settings.getMaxLimit())
+		{
+			this.limit.set(current + 1);
+		}
+	}
+
+	/**
+	 * Get the limit of the requests at the same time
+	 *
+	 * @return int
+	 */
+	public int limit()
+	{
+		return this.limit.get();
+	}
+
+	protected void releaseClient(String client)
+	{
+		this.clients.computeIfPresent(client, (key, count) -> count.decrementAndGet() == 0 ? null : count);
+	}
+
+	protected Counter rejected(MeterRegistry registry, String reason)
+	{
+		return Counter.builder("blob.admission.rejected")
+				.description("Requests of the routes rejected by the admission, by reason")
+				.tag("reason", reason)
+				.register(registry);
+	}
+
+	protected static AtomicInteger increment(AtomicInteger count)
+	{
+		count.incrementAndGet();
+		return count;
+	}
+
+	/**
+	 * Admission of a request, released once
+	 */
+	public class Permit
+	{
+		protected final String client;
+
+		protected final long uploadBytes;
+
+		protected final AtomicBoolean released = new AtomicBoolean();
+
+		protected Permit(String client, long uploadBytes)
+		{
+			this.client = client;
+			this.uploadBytes = uploadBytes;
+		}
+
+		/**
+		 * Give back the slot of the request and the bytes of its upload
+		 */
+		public void release()
+		{
+			if (this.released.compareAndSet(false, true))
+			{
+				AdmissionController.this.uploadBytes.addAndGet(-this.uploadBytes);
+				AdmissionController.this.releaseClient(this.client);
+				AdmissionController.this.inFlight.decrementAndGet();
+			}
+		}
+	}
+}
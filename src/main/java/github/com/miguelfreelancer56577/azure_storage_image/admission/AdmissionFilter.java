@@ -0,0 +1,150 @@
+package github.com.miguelfreelancer56577.azure_storage_image.admission;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+import github.com.miguelfreelancer56577.azure_storage_image.config.BlobProperties;
+import github.com.miguelfreelancer56577.azure_storage_image.exception.BlobException;
+import github.com.miguelfreelancer56577.azure_storage_image.router.BlobRouter;
+import reactor.core.publisher.Mono;
+
+/**
+ * Filter used to admit the requests of the blob api through the AdmissionController before they're routed,
+ * the rejected requests are answered at once with the status code of the rejection and the Retry-After header.
+ *
+ * It's a WebFilter and not a filter of the routes so the permit is kept until the body of the response is sent,
+ * it runs before any other filter so a rejected request doesn't take any more resources.
+ *
+ * The client is the remote address of the request, or the last address of blob.admission.client-header
+ * when the service is behind a proxy.
+ *
+ * @author mangelt
+ *
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class AdmissionFilter implements WebFilter
+{
+
+	@Autowired
+	protected AdmissionController admissionController;
+
+	@Autowired
+	protected BlobProperties properties;
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain)
+	{
+		ServerHttpRequest request = exchange.getRequest();
+		String path = request.getPath().pathWithinApplication().value();
+
+		if (!this.properties.getAdmission().isEnabled() || !path.startsWith(BlobRouter.API + "/"))
+		{
+			return chain.filter(exchange);
+		}
+
+		return Mono.defer(() ->
+		{
+			AdmissionController.Permit permit;
+
+			try
+			{
+				permit = this.admissionController.acquire(AdmissionFilter.client(request, this.properties.getAdmission().getClientHeader()),
+						AdmissionFilter.uploadLength(request, path));
+			}
+			catch (BlobException e)
+			{
+				return this.reject(exchange.getResponse(), e);
+			}
+
+			return chain.filter(exchange)
+					.doFinally(signal -> permit.release());
+		});
+	}
+
+	/**
+	 * Answer a rejected request with the status code and the message of the rejection
+	 *
+	 * @param response: ServerHttpResponse
+	 * @param e: BlobException
+	 * @return Mono<Void>
+	 */
+	protected Mono<Void> reject(ServerHttpResponse response, BlobException e)
+	{
+		byte[] message = e.getMessage().getBytes(StandardCharsets.UTF_8);
+
+		response.setStatusCode(e.getStatus());
+		response.getHeaders().set(HttpHeaders.RETRY_AFTER,
+				String.valueOf(Math.max(1, this.properties.getAdmission().getRetryAfter().getSeconds())));
+		response.getHeaders().setContentType(MediaType.TEXT_PLAIN);
+		response.getHeaders().setContentLength(message.length);
+
+		return response.writeWith(Mono.just(response.bufferFactory().wrap(message)));
+	}
+
+	/**
+	 * Get the address of the client of a request, from the last address of the header set by the proxy when there is one
+	 *
+	 * @param request: ServerHttpRequest
+	 * @param clientHeader: String header of the proxy, empty when there is no proxy
+	 * @return String
+	 */
+	protected static String client(ServerHttpRequest request, String clientHeader)
+	{
+		if (clientHeader != null && !clientHeader.isEmpty())
+		{
+			List<String> values = request.getHeaders().get(clientHeader);
+
+			if (values != null && !values.isEmpty())
+			{
+				String[] addresses = values.get(values.size() - 1).split(",");
+				String last = addresses[addresses.length - 1].trim();
+
+				if (!last.isEmpty())
+				{
+					return last;
+				}
+			}
+		}
+
+		InetSocketAddress address = request.getRemoteAddress();
+
+		if (address == null)
+		{
+			return "unknown";
+		}
+
+		return address.getAddress() != null ? address.getAddress().getHostAddress() : address.getHostString();
+	}
+
+	/**
+	 * Get the bytes of the upload of a request, -1 when it's an upload without Content-Length and 0 when it isn't an upload
+	 *
+	 * @param request: ServerHttpRequest
+	 * @param path: String
+	 * @return long
+	 */
+	protected static long uploadLength(ServerHttpRequest request, String path)
+	{
+		if (request.getMethod() != HttpMethod.POST || !path.startsWith(BlobRouter.API + "/upload"))
+		{
+			return 0;
+		}
+
+		return request.getHeaders().getContentLength();
+	}
+}
@@ -0,0 +1,56 @@
+package github.com.miguelfreelancer56577.azure_storage_image.archive;
+
+import java.util.Locale;
+
+import org.springframework.http.HttpStatus;
+
+import github.com.miguelfreelancer56577.azure_storage_image.exception.BlobException;
+
+/**
+ * Formats of the archives of blob files
+ *
+ * ZIP: entries deflated with the configured level, the sizes are written after each entry
+ * TAR: ustar entries, the sizes are taken from the properties of the blob files
+ *
+ * @author mangelt
+ *
+ */
+public enum ArchiveFormat
+{
+	ZIP("application/zip"), TAR("application/x-tar");
+
+	protected final String contentType;
+
+	ArchiveFormat(String contentType)
+	{
+		this.contentType = contentType;
+	}
+
+	public String getContentType()
+	{
+		return this.contentType;
+	}
+
+	public String getExtension()
+	{
+		return this.name().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Get the format from the format query param
+	 *
+	 * @param format: String
+	 * @return ArchiveFormat
+	 */
+	public static ArchiveFormat from(String format)
+	{
+		try
+		{
+			return ArchiveFormat.valueOf(format.toUpperCase(Locale.ROOT));
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new BlobException(HttpStatus.BAD_REQUEST, "The format of the archive must be zip or tar.");
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package github.com.miguelfreelancer56577.azure_storage_image.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+import github.com.miguelfreelancer56577.azure_storage_image.store.BlobInfo;
+
+/**
+ * Class used to write the blob files into an archive as they are received.
+ *
+ * The archive is written into a small buffer which is drained after each entry or chunk of content,
+ * so only the bytes not sent yet to the client are kept in memory.
+ *
+ * @author mangelt
+ *
+ */
+public abstract class ArchiveWriter
+{
+	protected final DataBufferFactory bufferFactory;
+
+	protected final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	protected ArchiveWriter(DataBufferFactory bufferFactory)
+	{
+		this.bufferFactory = bufferFactory;
+	}
+
+	/**
+	 * Get the writer of the format
+	 *
+	 * @param format: ArchiveFormat
+	 * @param bufferFactory: DataBufferFactory
+	 * @param compressionLevel: int level of the ZIP entries, from 0 to 9
+	 * @return ArchiveWriter
+	 */
+	public static ArchiveWriter of(ArchiveFormat format, DataBufferFactory bufferFactory, int compressionLevel)
+	{
+		return format == ArchiveFormat.TAR
+				? new TarArchiveWriter(bufferFactory)
+				: new ZipArchiveWriter(bufferFactory, compressionLevel);
+	}
+
+	/**
+	 * Write the next element of the archive, a BlobInfo starts a new entry and a DataBuffer is part
+	 * of the content of the current entry, the DataBuffer is released
+	 *
+	 * @param element: Object
+	 * @return DataBuffer bytes of the archive ready to be sent, can be empty
+	 * @throws IOException
+	 */
+	public DataBuffer write(Object element) throws IOException
+	{
+		if (element instanceof BlobInfo)
+		{
+			this.startEntry((BlobInfo)element);
+		}
+		else
+		{
+			DataBuffer buffer = (DataBuffer)element;
+
+			try
+			{
+				byte[] content = new byte[buffer.readableByteCount()];
+				buffer.read(content);
+				this.writeContent(content);
+			}
+			finally
+			{
+				DataBufferUtils.release(buffer);
+			}
+		}
+		return this.drain();
+	}
+
+	/**
+	 * Close the last entry and write the end of the archive
+	 *
+	 * @return DataBuffer the last bytes of the archive
+	 * @throws IOException
+	 */
+	public DataBuffer finish() throws IOException
+	{
+		this.finishArchive();
+		return this.drain();
+	}
+
+	/**
+	 * Release the resources of the writer, called when the archive is sent, fails or is cancelled
+	 */
+	public void close()
+	{
+	}
+
+	/**
+	 * Take the bytes written since the last call
+	 *
+	 * @return DataBuffer
+	 */
+	protected DataBuffer drain()
+	{
+		DataBuffer buffer = this.bufferFactory.wrap(this.out.toByteArray());
+		this.out.reset();
+		return buffer;
+	}
+
+	protected abstract void startEntry(BlobInfo blob) throws IOException;
+
+	protected abstract void writeContent(byte[] content) throws IOException;
+
+	protected abstract void finishArchive() throws IOException;
+
+}
@@ -0,0 +1,154 @@
+package github.com.miguelfreelancer56577.azure_storage_image.archive;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.HttpStatus;
+
+import github.com.miguelfreelancer56577.azure_storage_image.exception.BlobException;
+import github.com.miguelfreelancer56577.azure_storage_image.store.BlobInfo;
+
+/**
+ * Write the blob files into a ustar archive.
+ *
+ * Each entry has a header of 512 bytes with the length of the blob file, and its content is padded
+ * to 512 bytes, the archive ends with two empty blocks.
+ *
+ * @author mangelt
+ *
+ */
+public class TarArchiveWriter extends ArchiveWriter
+{
+	protected static final int BLOCK = 512;
+
+	protected long entryLength;
+
+	protected long written;
+
+	public TarArchiveWriter(DataBufferFactory bufferFactory)
+	{
+		super(bufferFactory);
+	}
+
+	@Override
+	protected void startEntry(BlobInfo blob) throws IOException
+	{
+		this.closeEntry();
+
+		byte[] header = new byte[BLOCK];
+		this.splitName(blob.getName(), header);
+		TarArchiveWriter.octal(header, 100, 8, 0644);
+		TarArchiveWriter.octal(header, 108, 8, 0);
+		TarArchiveWriter.octal(header, 116, 8, 0);
+		TarArchiveWriter.octal(header, 124, 12, blob.getLength());
+		TarArchiveWriter.octal(header, 136, 12, blob.getLastModified() / 1000);
+		header[156] = '0';
+		System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+
+		for (int i = 148; i < 156; i++)
+		{
+			header[i] = ' ';
+		}
+		long checksum = 0;
+		for (byte b : header)
+		{
+			checksum += b & 0xff;
+		}
+		TarArchiveWriter.octal(header, 148, 7, checksum);
+		header[154] = 0;
+
+		this.out.write(header);
+		this.entryLength = blob.getLength();
+		this.written = 0;
+	}
+
+	@Override
+	protected void writeContent(byte[] content) throws IOException
+	{
+		this.written += content.length;
+
+		if (this.written > this.entryLength)
+		{
+			throw new IOException("The blob file is bigger than its properties, it changed while it was archived.");
+		}
+		this.out.write(content);
+	}
+
+	@Override
+	protected void finishArchive() throws IOException
+	{
+		this.closeEntry();
+		this.out.write(new byte[BLOCK * 2]);
+	}
+
+	/**
+	 * Pad the content of the current entry to a whole block
+	 *
+	 * @throws IOException
+	 */
+	protected void closeEntry() throws IOException
+	{
+		if (this.written != this.entryLength)
+		{
+			throw new IOException("The blob file is smaller than its properties, it changed while it was archived.");
+		}
+
+		int padding = (int)(this.written % BLOCK);
+		if (padding != 0)
+		{
+			this.out.write(new byte[BLOCK - padding]);
+		}
+		this.entryLength = 0;
+		this.written = 0;
+	}
+
+	/**
+	 * Write the name in the name field, names longer than 100 bytes are split at a slash
+	 * between the prefix and name fields
+	 *
+	 * @param name: String
+	 * @param header: byte[]
+	 */
+	protected void splitName(String name, byte[] header)
+	{
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+
+		if (bytes.length <= 100)
+		{
+			System.arraycopy(bytes, 0, header, 0, bytes.length);
+			return;
+		}
+
+		for (int i = Math.min(bytes.length - 1, 155); i > 0; i--)
+		{
+			if (bytes[i] == '/' && bytes.length - i - 1 <= 100)
+			{
+				System.arraycopy(bytes, 0, header, 345, i);
+				System.arraycopy(bytes, i + 1, header, 0, bytes.length - i - 1);
+				return;
+			}
+		}
+		throw new BlobException(HttpStatus.BAD_REQUEST, "The name " + name + " is too long for a tar archive.");
+	}
+
+	/**
+	 * Write a number as octal digits ended by a NUL
+	 *
+	 * @param header: byte[]
+	 * @param offset: int
+	 * @param length: int length of the field, including the NUL
+	 * @param value: long
+	 */
+	protected static void octal(byte[] header, int offset, int length, long value)
+	{
+		String digits = String.format("%0" + (length - 1) + "o", value);
+
+		if (digits.length() > length - 1)
+		{
+			throw new BlobException(HttpStatus.BAD_REQUEST, "The blob file is too big for a tar archive.");
+		}
+		System.arraycopy(digits.getBytes(StandardCharsets.US_ASCII), 0, header, offset, length - 1);
+	}
+
+}
@@ -0,0 +1,75 @@
+package github.com.miguelfreelancer56577.azure_storage_image.archive;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.springframework.core.io.buffer.DataBufferFactory;
+
+import github.com.miguelfreelancer56577.azure_storage_image.store.BlobInfo;
+
+/**
+ * Write the blob files into a ZIP archive, ZipOutputStream switches to ZIP64 when
+ * there are more than 65535 entries or an entry is bigger than 4GB.
+ *
+ * The native memory of the Deflater is released by close even when the archive didn't finish.
+ *
+ * @author mangelt
+ *
+ */
+public class ZipArchiveWriter extends ArchiveWriter
+{
+	protected final DeflaterZipOutputStream zip;
+
+	public ZipArchiveWriter(DataBufferFactory bufferFactory, int compressionLevel)
+	{
+		super(bufferFactory);
+		this.zip = new DeflaterZipOutputStream(this.out);
+		this.zip.setLevel(compressionLevel);
+	}
+
+	@Override
+	protected void startEntry(BlobInfo blob) throws IOException
+	{
+		ZipEntry entry = new ZipEntry(blob.getName());
+		entry.setTime(blob.getLastModified());
+		this.zip.putNextEntry(entry);
+	}
+
+	@Override
+	protected void writeContent(byte[] content) throws IOException
+	{
+		this.zip.write(content);
+	}
+
+	@Override
+	protected void finishArchive() throws IOException
+	{
+		this.zip.finish();
+	}
+
+	@Override
+	public void close()
+	{
+		this.zip.end();
+	}
+
+	/**
+	 * ZipOutputStream whose Deflater can be ended without finishing the archive, close would write
+	 * the central directory and skips ending the Deflater when it fails
+	 */
+	protected static class DeflaterZipOutputStream extends ZipOutputStream
+	{
+		public DeflaterZipOutputStream(OutputStream out)
+		{
+			super(out);
+		}
+
+		public void end()
+		{
+			this.def.end();
+		}
+	}
+
+}
@@ -0,0 +1,315 @@
+package github.com.miguelfreelancer56577.azure_storage_image.blob;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import github.com.miguelfreelancer56577.azure_storage_image.config.BlobProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+/**
+ * Policies of the calls made against azure by the StorageResources of a container, shared by all of them.
+ *
+ * Retries: a call which fails with a retryable error is made again after a random wait between 0 and
+ * retry-base-delay doubled by each attempt, so the clients which failed together don't retry together.
+ *
+ * Circuit breaker: failure-threshold failed calls in a row open the circuit, the calls fail at once with
+ * a CircuitOpenException during open-duration, then a single call is let through: the circuit is closed
+ * when it succeeds and opened again when it fails. The answers of azure such as 404 or 412 aren't failures.
+ *
+ * Hedged reads: the time of the last ranged reads is kept, a read which takes longer than their
+ * hedge-percentile is sent again and the first answer is used. Nothing is hedged while the circuit isn't closed.
+ *
+ * Meters:
+ * blob.azure.retries: calls made again, by operation
+ * blob.azure.hedges: hedged reads started and hedged reads which answered first
+ * blob.azure.circuit.state: 0 closed, 1 open, 2 half-open
+ * blob.azure.circuit.transitions: changes of the state of the circuit, by the new state
+ *
+ * @author mangelt
+ *
+ */
+@Slf4j
+public class AzureResilience
+{
+
+	/**
+	 * Used by the StorageResources created outside of a BlobStore, its meters aren't exported
+	 */
+	public static final AzureResilience DEFAULT = new AzureResilience(new BlobProperties.Resilience(), new SimpleMeterRegistry());
+
+	/**
+	 * Reads whose time is kept to get the delay of the hedged reads
+	 */
+	protected static final int WINDOW = 512;
+
+	/**
+	 * Reads between two calculations of the delay of the hedged reads
+	 */
+	protected static final int RECALCULATE_EVERY = 32;
+
+	public enum State
+	{
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	protected final BlobProperties.Resilience settings;
+
+	protected final MeterRegistry registry;
+
+	protected final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+
+	protected final AtomicInteger failures = new AtomicInteger();
+
+	protected final AtomicBoolean probing = new AtomicBoolean();
+
+	protected volatile long openedAt;
+
+	protected final AtomicLongArray reads = new AtomicLongArray(AzureResilience.WINDOW);
+
+	protected final AtomicLong readCount = new AtomicLong();
+
+	/**
+	 * Delay of the hedged reads in nanoseconds, -1 until enough reads were made
+	 */
+	protected volatile long hedgeDelay = -1;
+
+	protected final Map<String, Counter> retries = new ConcurrentHashMap<>();
+
+	protected final Map<State, Counter> transitions = new EnumMap<>(State.class);
+
+	protected final Counter hedgesStarted;
+
+	protected final Counter hedgesWon;
+
+	public AzureResilience(BlobProperties.Resilience settings, MeterRegistry registry)
+	{
+		this.settings = settings;
+		this.registry = registry;
+
+		Gauge.builder("blob.azure.circuit.state", this.state, state -> state.get().ordinal())
+				.description("State of the circuit of the calls against azure, 0 closed, 1 open, 2 half-open")
+				.register(registry);
+
+		for (State state : State.values())
+		{
+			this.transitions.put(state, Counter.builder("blob.azure.circuit.transitions")
+					.description("Changes of the state of the circuit of the calls against azure, by the new state")
+					.tag("state", state.name().toLowerCase().replace('_', '-'))
+					.register(registry));
+		}
+
+		this.hedgesStarted = this.hedges("started");
+		this.hedgesWon = this.hedges("won");
+	}
+
+	/**
+	 * Check if a call can be made before making it
+	 *
+	 * @return boolean true when the call is the probe of a half-open circuit
+	 * @throws CircuitOpenException when the circuit is open
+	 */
+	public boolean before()
+	{
+		if (this.state.get() == State.OPEN)
+		{
+			long left = this.openedAt + this.settings.getOpenDuration().toNanos() - System.nanoTime();
+
+			if (left > 0)
+			{
+				throw new CircuitOpenException(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(left + TimeUnit.SECONDS.toNanos(1) - 1)));
+			}
+
+			this.transition(State.OPEN, State.HALF_OPEN);
+		}
+
+		if (this.state.get() == State.HALF_OPEN)
+		{
+			if (!this.probing.compareAndSet(false, true))
+			{
+				throw new CircuitOpenException(1);
+			}
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Record a call answered by azure
+	 *
+	 * @param probe: boolean returned by before
+	 */
+	public void onSuccess(boolean probe)
+	{
+		this.failures.set(0);
+
+		if (probe)
+		{
+			this.transition(State.HALF_OPEN, State.CLOSED);
+			this.probing.set(false);
+		}
+	}
+
+	/**
+	 * Record a call failed with a retryable error
+	 *
+	 * @param probe: boolean returned by before
+	 */
+	public void onFailure(boolean probe)
+	{
+		if (probe)
+		{
+			this.openedAt = System.nanoTime();
+			this.transition(State.HALF_OPEN, State.OPEN);
+			this.probing.set(false);
+		}
+		else if (this.failures.incrementAndGet() >= this.settings.getFailureThreshold() && this.state.get() == State.CLOSED)
+		{
+			this.openedAt = System.nanoTime();
+			this.transition(State.CLOSED, State.OPEN);
+		}
+	}
+
+	/**
+	 * Get the wait before making again a call which failed, a random time up to the base delay
+	 * doubled by each attempt
+	 *
+	 * @param attempt: int attempts already failed, from 0
+	 * @return long milliseconds
+	 */
+	public long backOff(int attempt)
+	{
+		long base = this.settings.getRetryBaseDelay().toMillis();
+		long cap = Math.min(this.settings.getRetryMaxDelay().toMillis(), base << Math.min(attempt, 20));
+		return ThreadLocalRandom.current().nextLong(cap + 1);
+	}
+
+	/**
+	 * Get how many times a failed call is made again
+	 *
+	 * @return int
+	 */
+	public int maxRetries()
+	{
+		return this.settings.getMaxRetries();
+	}
+
+	/**
+	 * Count a call made again
+	 *
+	 * @param operation: String
+	 */
+	public void retried(String operation)
+	{
+		this.retries.computeIfAbsent(operation, key -> Counter.builder("blob.azure.retries")
+				.description("Calls against azure made again after a retryable error, by operation")
+				.tag("operation", key)
+				.register(this.registry))
+				.increment();
+	}
+
+	/**
+	 * Keep the time of a ranged read, the delay of the hedged reads is calculated again every few reads
+	 *
+	 * @param nanos: long
+	 */
+	public void recordRead(long nanos)
+	{
+		long count = this.readCount.incrementAndGet();
+		this.reads.set((int)((count - 1) % AzureResilience.WINDOW), nanos);
+
+		if (count % AzureResilience.RECALCULATE_EVERY == 0)
+		{
+			int size = (int)Math.min(count, AzureResilience.WINDOW);
+			long[] sorted = new long[size];
+
+			for (int i = 0; i < size; i++)
+			{
+				sorted[i] = this.reads.get(i);
+			}
+			Arrays.sort(sorted);
+
+			int index = (int)Math.ceil(this.settings.getHedgePercentile() * size) - 1;
+			this.hedgeDelay = Math.max(this.settings.getHedgeMinDelay().toNanos(), sorted[Math.max(0, Math.min(index, size - 1))]);
+		}
+	}
+
+	/**
+	 * Make a read again when it takes longer than the delay of the hedged reads, the first answer is used
+	 * and the other read is cancelled. The read must be safe to make twice.
+	 *
+	 * @param read: Mono<T>
+	 * @return Mono<T>
+	 */
+	public <T> Mono<T> hedge(Mono<T> read)
+	{
+		return Mono.defer(() ->
+		{
+			long delay = this.hedgeDelay;
+
+			if (!this.settings.isHedgeEnabled() || delay < 0 || this.state.get() != State.CLOSED)
+			{
+				return read;
+			}
+
+			return Mono.first(read, Mono.delay(Duration.ofNanos(delay))
+					.then(Mono.defer(() ->
+					{
+						this.hedgesStarted.increment();
+						return read.doOnNext(value -> this.hedgesWon.increment());
+					})));
+		});
+	}
+
+	/**
+	 * Check if the cached blob files can be served without validating them while azure is unavailable
+	 *
+	 * @return boolean
+	 */
+	public boolean isServeStale()
+	{
+		return this.settings.isServeStale();
+	}
+
+	/**
+	 * Get the state of the circuit
+	 *
+	 * @return State
+	 */
+	public State state()
+	{
+		return this.state.get();
+	}
+
+	protected void transition(State from, State to)
+	{
+		if (this.state.compareAndSet(from, to))
+		{
+			log.warn("AZURE CIRCUIT {} -> {}", from, to);
+			this.transitions.get(to).increment();
+		}
+	}
+
+	protected Counter hedges(String result)
+	{
+		return Counter.builder("blob.azure.hedges")
+				.description("Ranged reads sent again because the first one was slow, by started and answered first")
+				.tag("result", result)
+				.register(this.registry);
+	}
+}
@@ -0,0 +1,26 @@
+package github.com.miguelfreelancer56577.azure_storage_image.blob;
+
+import lombok.Getter;
+
+/**
+ * Exception thrown instead of calling azure while the circuit of the calls is open
+ *
+ * @author mangelt
+ *
+ */
+@Getter
+public class CircuitOpenException extends RuntimeException
+{
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Seconds until azure is called again
+	 */
+	protected final long retryAfter;
+
+	public CircuitOpenException(long retryAfter)
+	{
+		super("AZURE IS UNAVAILABLE, THE CIRCUIT IS OPEN");
+		this.retryAfter = retryAfter;
+	}
+}
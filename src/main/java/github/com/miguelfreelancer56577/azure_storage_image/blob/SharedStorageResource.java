@@ -0,0 +1,140 @@
+package github.com.miguelfreelancer56577.azure_storage_image.blob;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import javax.validation.constraints.NotNull;
+
+import org.springframework.core.io.buffer.DataBuffer;
+
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * StorageResource bound to a single blob file, shared by the reads of several threads
+ * because the blob file and the settings can't be changed after it's created.
+ *
+ * The properties read from azure are replaced by each call, read them once per operation.
+ *
+ * It's read only: an upload sets the content type, Cache-Control and Content-MD5 in the properties
+ * of its reference of the blob file before committing them, which a read of another thread would replace,
+ * so each upload takes its own StorageResource from StorageResourcePool.writer.
+ *
+ * @author mangelt
+ *
+ */
+public class SharedStorageResource extends StorageResource
+{
+
+	protected final boolean sealed;
+
+	public SharedStorageResource(@NotNull CloudBlobContainer blobContainer, @NotNull String blockBlobReference,
+			int maxBlockRetries, boolean md5, boolean verifyDownloads, String cacheControl, AzureResilience resilience)
+	{
+		super(blobContainer, blockBlobReference);
+		this.resilience = resilience;
+		this.maxBlockRetries = maxBlockRetries;
+		this.md5 = md5;
+		this.verifyDownloads = verifyDownloads;
+		this.cacheControl = cacheControl;
+		this.sealed = true;
+	}
+
+	@Override
+	public void setCloudBlockBlob(String blockBlobReference)
+	{
+		if (this.sealed)
+		{
+			throw new UnsupportedOperationException("A shared StorageResource can't change its blob file");
+		}
+		super.setCloudBlockBlob(blockBlobReference);
+	}
+
+	@Override
+	public void setResilience(AzureResilience resilience)
+	{
+		throw new UnsupportedOperationException("A shared StorageResource can't change its settings");
+	}
+
+	@Override
+	public void uploadText(String content)
+	{
+		throw SharedStorageResource.readOnly();
+	}
+
+	@Override
+	public void uploadFromFile(File sourceFile)
+	{
+		throw SharedStorageResource.readOnly();
+	}
+
+	@Override
+	public void uploadFromFile(File sourceFile, int blockSize, ExecutorService executor)
+	{
+		throw SharedStorageResource.readOnly();
+	}
+
+	@Override
+	public void uploadFromFile(String content)
+	{
+		throw SharedStorageResource.readOnly();
+	}
+
+	@Override
+	public void uploadBlock(String blockId, byte[] data)
+	{
+		throw SharedStorageResource.readOnly();
+	}
+
+	@Override
+	public void commitBlockList(List<String> blockIds, String contentMd5)
+	{
+		throw SharedStorageResource.readOnly();
+	}
+
+	@Override
+	public Mono<Void> uploadFromDataBuffers(Flux<DataBuffer> content, int blockSize, int maxInFlight, Scheduler scheduler)
+	{
+		return Mono.error(SharedStorageResource.readOnly());
+	}
+
+	@Override
+	public OutputStream getOutputStream()
+	{
+		throw SharedStorageResource.readOnly();
+	}
+
+	protected static UnsupportedOperationException readOnly()
+	{
+		return new UnsupportedOperationException("A shared StorageResource can't upload, use StorageResourcePool.writer");
+	}
+
+	@Override
+	public void setMaxBlockRetries(int maxBlockRetries)
+	{
+		throw new UnsupportedOperationException("A shared StorageResource can't change its settings");
+	}
+
+	@Override
+	public void setMd5(boolean md5)
+	{
+		throw new UnsupportedOperationException("A shared StorageResource can't change its settings");
+	}
+
+	@Override
+	public void setVerifyDownloads(boolean verifyDownloads)
+	{
+		throw new UnsupportedOperationException("A shared StorageResource can't change its settings");
+	}
+
+	@Override
+	public void setCacheControl(String cacheControl)
+	{
+		throw new UnsupportedOperationException("A shared StorageResource can't change its settings");
+	}
+}
@@ -1,26 +1,74 @@
 package github.com.miguelfreelancer56577.azure_storage_image.blob;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 import javax.validation.constraints.NotNull;
 
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpStatus;
 import org.springframework.util.StreamUtils;
 
+import com.microsoft.azure.storage.AccessCondition;
+import com.microsoft.azure.storage.ResultContinuation;
+import com.microsoft.azure.storage.ResultContinuationType;
+import com.microsoft.azure.storage.ResultSegment;
 import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.BlobListingDetails;
+import com.microsoft.azure.storage.blob.BlobRequestOptions;
+import com.microsoft.azure.storage.blob.BlockEntry;
 import com.microsoft.azure.storage.blob.CloudBlobContainer;
 import com.microsoft.azure.storage.blob.CloudBlockBlob;
 import com.microsoft.azure.storage.blob.ListBlobItem;
 
+import github.com.miguelfreelancer56577.azure_storage_image.cache.BlobCache;
+import github.com.miguelfreelancer56577.azure_storage_image.cache.CachedBlob;
+import github.com.miguelfreelancer56577.azure_storage_image.exception.BlobException;
+import github.com.miguelfreelancer56577.azure_storage_image.util.BlobUtil;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
 /**
  * Class Used to manage operations against blob file in azure , such as upload, delete, read, write etc.
@@ -32,10 +80,41 @@ import lombok.extern.slf4j.Slf4j;
 public class StorageResource
 {
 
+	/**
+	 * Biggest range whose MD5 is returned by azure
+	 */
+	protected static final int MAX_MD5_RANGE = 4 * 1024 * 1024;
+
+	/**
+	 * Bytes read from the head of a file to detect its content type
+	 */
+	protected static final int CONTENT_TYPE_SNIFF = 64 * 1024;
+
+	/**
+	 * Biggest segment of a listing returned by azure
+	 */
+	protected static final int LIST_PAGE_SIZE = 5000;
+
+	/**
+	 * Timers of the calls against azure by operation, they are registered in the global registry
+	 * because the StorageResources aren't beans
+	 */
+	protected static final Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+
 	protected CloudBlobContainer blobContainer;
 
 	protected CloudBlockBlob blockBlob;
 
+	protected int maxBlockRetries = 3;
+
+	protected boolean md5;
+
+	protected boolean verifyDownloads;
+
+	protected String cacheControl;
+
+	protected AzureResilience resilience = AzureResilience.DEFAULT;
+
 	/**
 	 * Receives an instance of the Bean which has the container reference
 	 *
@@ -71,11 +150,62 @@ public class StorageResource
 		}
 		catch (URISyntaxException | StorageException e)
 		{
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			StorageResource.log.error("INVALID BLOB NAME {}: {}", blockBlobReference, e.getMessage());
+			throw new BlobException(HttpStatus.BAD_REQUEST, "The name of the blob file is not valid.");
 		}
 	}
 
+	/**
+	 * Set the policies of the calls against azure, shared by the StorageResources of the container
+	 *
+	 * @param resilience: AzureResilience
+	 */
+	public void setResilience(AzureResilience resilience)
+	{
+		this.resilience = resilience;
+	}
+
+	/**
+	 * Set how many times a failed block is uploaded again before the upload fails
+	 *
+	 * @param maxBlockRetries: int
+	 */
+	public void setMaxBlockRetries(int maxBlockRetries)
+	{
+		this.maxBlockRetries = maxBlockRetries;
+	}
+
+	/**
+	 * Set if the blocks are sent with their MD5 and the streamed uploads are committed with the Content-MD5
+	 * of the whole blob file, computed while the blocks are created
+	 *
+	 * @param md5: boolean
+	 */
+	public void setMd5(boolean md5)
+	{
+		this.md5 = md5;
+	}
+
+	/**
+	 * Set if the ranges downloaded are checked with the MD5 returned by azure
+	 *
+	 * @param verifyDownloads: boolean
+	 */
+	public void setVerifyDownloads(boolean verifyDownloads)
+	{
+		this.verifyDownloads = verifyDownloads;
+	}
+
+	/**
+	 * Set the Cache-Control stored with the uploaded blob files, azure returns it with each download
+	 *
+	 * @param cacheControl: String or null
+	 */
+	public void setCacheControl(String cacheControl)
+	{
+		this.cacheControl = cacheControl;
+	}
+
 	/**
 	 * Get a reference to the blob container
 	 *
@@ -105,7 +235,11 @@ public class StorageResource
 	 */
 	public void uploadText(String content) throws StorageException, IOException
 	{
-		this.blockBlob.uploadText(content);
+		this.remote("upload", () ->
+		{
+			this.blockBlob.uploadText(content);
+			return null;
+		});
 	}
 
 	/**
@@ -117,7 +251,65 @@ public class StorageResource
 	 */
 	public void uploadFromFile(File sourceFile) throws StorageException, IOException
 	{
-		this.blockBlob.uploadFromFile(sourceFile.getAbsolutePath());
+		this.setContentProperties(sourceFile);
+		this.remote("upload", () ->
+		{
+			this.blockBlob.uploadFromFile(sourceFile.getAbsolutePath());
+			return null;
+		});
+	}
+
+	/**
+	 * Upload the blob file from a File splitting it in blocks of blockSize bytes.
+	 *
+	 * The blocks are read and uploaded at the same time by the executor, each failed block is
+	 * retried on its own and the block list is committed only when every block was uploaded,
+	 * so the blob file is never left with a partial content.
+	 *
+	 * The content type is detected from the head of the file and committed with the cache control.
+	 *
+	 * @param sourceFile: File
+	 * @param blockSize: int
+	 * @param executor: ExecutorService with a bounded number of threads
+	 * @throws StorageException
+	 * @throws IOException
+	 */
+	public void uploadFromFile(File sourceFile, int blockSize, ExecutorService executor) throws StorageException, IOException
+	{
+		long length = sourceFile.length();
+		int blocks = (int)((length + blockSize - 1) / blockSize);
+		List<Future<String>> futures = new ArrayList<>(blocks);
+		List<String> blockIds = new ArrayList<>(blocks);
+		String upload = StorageResource.uploadId();
+
+		try (FileChannel channel = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ))
+		{
+			for (int i = 0; i < blocks; i++)
+			{
+				long position = (long)i * blockSize;
+				int size = (int)Math.min(blockSize, length - position);
+				String blockId = StorageResource.blockId(upload, i);
+
+				futures.add(executor.submit(() ->
+				{
+					this.uploadBlockWithRetry(blockId, StorageResource.readBlock(channel, position, size));
+					return blockId;
+				}));
+			}
+
+			for (Future<String> future : futures)
+			{
+				blockIds.add(StorageResource.await(future));
+			}
+		}
+		finally
+		{
+			futures.forEach(future -> future.cancel(true));
+		}
+
+		this.setContentProperties(sourceFile);
+		this.commitBlockList(blockIds);
+		StorageResource.log.info("{} BLOCKS COMMITTED IN {}", blockIds.size(), this.blockBlob.getName());
 	}
 
 	/**
@@ -130,7 +322,380 @@ public class StorageResource
 	public void uploadFromFile(String content) throws StorageException, IOException
 	{
 		File sourceFile = this.getTmpFile(content);
-		this.blockBlob.uploadFromFile(sourceFile.getAbsolutePath());
+		this.remote("upload", () ->
+		{
+			this.blockBlob.uploadFromFile(sourceFile.getAbsolutePath());
+			return null;
+		});
+	}
+
+	/**
+	 * Upload a block of the blob file, the block is not part of the blob until it's committed.
+	 * It's uploaded once, uploadBlockWithRetry uploads it again after a retryable error.
+	 *
+	 * @param blockId: String
+	 * @param data: byte[]
+	 * @throws StorageException
+	 * @throws IOException
+	 */
+	public void uploadBlock(String blockId, byte[] data) throws StorageException, IOException
+	{
+		BlobRequestOptions options = new BlobRequestOptions();
+		options.setUseTransactionalContentMD5(this.md5);
+
+		this.remote("uploadBlock", 0, () ->
+		{
+			this.blockBlob.uploadBlock(blockId, new ByteArrayInputStream(data), data.length, null, options, null);
+			return null;
+		});
+	}
+
+	/**
+	 * Upload a block of the blob file, it's uploaded again up to maxBlockRetries times when azure
+	 * returns a retryable error
+	 *
+	 * @param blockId: String
+	 * @param data: byte[]
+	 * @throws StorageException
+	 * @throws IOException
+	 */
+	public void uploadBlockWithRetry(String blockId, byte[] data) throws StorageException, IOException
+	{
+		for (int attempt = 0;; attempt++)
+		{
+			try
+			{
+				this.uploadBlock(blockId, data);
+				return;
+			}
+			catch (StorageException | IOException e)
+			{
+				if (attempt >= this.maxBlockRetries || !StorageResource.isRetryable(e))
+				{
+					throw e;
+				}
+
+				StorageResource.log.warn("RETRYING BLOCK {} OF {}, ATTEMPT {}: {}", blockId, this.blockBlob.getName(), attempt + 1,
+						e.getMessage());
+				this.resilience.retried("uploadBlock");
+				this.backOff(attempt);
+			}
+		}
+	}
+
+	/**
+	 * Commit the blocks already uploaded, in the given order, as the content of the blob file
+	 *
+	 * @param blockIds: List<String>
+	 * @throws StorageException
+	 * @throws IOException
+	 */
+	public void commitBlockList(List<String> blockIds) throws StorageException, IOException
+	{
+		this.commitBlockList(blockIds, null);
+	}
+
+	/**
+	 * Commit the blocks already uploaded, in the given order, as the content of the blob file,
+	 * azure keeps the Content-MD5 and returns it with the properties of the blob file
+	 *
+	 * @param blockIds: List<String>
+	 * @param contentMd5: String base64 MD5 of the whole content or null
+	 * @throws StorageException
+	 * @throws IOException
+	 */
+	public void commitBlockList(List<String> blockIds, String contentMd5) throws StorageException, IOException
+	{
+		this.blockBlob.getProperties().setContentMD5(contentMd5);
+
+		List<BlockEntry> blocks = blockIds.stream()
+				.map(BlockEntry::new)
+				.collect(Collectors.toList());
+
+		this.remote("commitBlockList", () ->
+		{
+			this.blockBlob.commitBlockList(blocks);
+			return null;
+		});
+	}
+
+	/**
+	 * Upload the blob file from a stream of buffers without writing it in disk.
+	 *
+	 * The buffers are grouped in blocks of blockSize bytes, at most maxInFlight blocks are
+	 * uploaded at the same time and the block list is committed once every block was uploaded.
+	 *
+	 * The content type is detected from the first block and committed with the cache control.
+	 *
+	 * @param content: Flux<DataBuffer>
+	 * @param blockSize: int
+	 * @param maxInFlight: int
+	 * @param scheduler: Scheduler used to run the blocking calls
+	 * @return Mono<Void>
+	 */
+	public Mono<Void> uploadFromDataBuffers(Flux<DataBuffer> content, int blockSize, int maxInFlight, Scheduler scheduler)
+	{
+		return Mono.defer(() ->
+		{
+			AtomicLong pending = new AtomicLong();
+			MessageDigest contentMd5 = this.md5 ? StorageResource.md5() : null;
+			AtomicReference<String> contentType = new AtomicReference<>();
+			String upload = StorageResource.uploadId();
+
+			return content.bufferUntil(buffer ->
+			{
+				if (pending.addAndGet(buffer.readableByteCount()) >= blockSize)
+				{
+					pending.set(0);
+					return true;
+				}
+				return false;
+			})
+					.map(StorageResource::toBlock)
+					.doOnNext(block ->
+					{
+						if (contentType.get() == null)
+						{
+							contentType.set(BlobUtil.detectContentType(this.blockBlob.getName(), block, block.length));
+						}
+						if (contentMd5 != null)
+						{
+							contentMd5.update(block);
+						}
+					})
+					.index()
+					.flatMapSequential(block -> Mono.fromCallable(() ->
+					{
+						String blockId = StorageResource.blockId(upload, block.getT1());
+						this.uploadBlockWithRetry(blockId, block.getT2());
+						return blockId;
+					})
+							.subscribeOn(scheduler), maxInFlight)
+					.collectList()
+					.flatMap(blockIds -> Mono.<Void>fromCallable(() ->
+					{
+						this.setContentProperties(contentType.get() != null
+								? contentType.get()
+								: BlobUtil.detectContentType(this.blockBlob.getName(), new byte[0], 0));
+						this.commitBlockList(blockIds,
+								contentMd5 == null ? null : Base64.getEncoder().encodeToString(contentMd5.digest()));
+						StorageResource.log.info("{} BLOCKS COMMITTED IN {}", blockIds.size(), this.blockBlob.getName());
+						return null;
+					})
+							.subscribeOn(scheduler));
+		});
+	}
+
+	/**
+	 * Set the content type detected from the head of the file and the cache control,
+	 * they are sent with the next upload or commit of the blob file
+	 *
+	 * @param sourceFile: File
+	 * @throws IOException
+	 */
+	protected void setContentProperties(File sourceFile) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ))
+		{
+			int length = (int)Math.min(StorageResource.CONTENT_TYPE_SNIFF, channel.size());
+			byte[] head = StorageResource.readBlock(channel, 0, length);
+			this.setContentProperties(BlobUtil.detectContentType(this.blockBlob.getName(), head, length));
+		}
+	}
+
+	/**
+	 * Set the content type and the cache control, they are sent with the next upload or commit of the blob file
+	 *
+	 * @param contentType: String
+	 */
+	protected void setContentProperties(String contentType)
+	{
+		com.microsoft.azure.storage.blob.BlobProperties properties = this.blockBlob.getProperties();
+		properties.setContentType(contentType);
+		properties.setCacheControl(this.cacheControl);
+	}
+
+	/**
+	 * Check the MD5 of a stream of buffers while it's read, the stream fails at the end when the
+	 * MD5 is not the expected one
+	 *
+	 * @param content: Flux<DataBuffer>
+	 * @param contentMd5: String base64 MD5 expected
+	 * @return Flux<DataBuffer>
+	 */
+	public static Flux<DataBuffer> verifyMd5(Flux<DataBuffer> content, String contentMd5)
+	{
+		return Flux.defer(() ->
+		{
+			MessageDigest md5 = StorageResource.md5();
+
+			return content.doOnNext(buffer -> md5.update(buffer.asByteBuffer()))
+					.concatWith(Mono.defer(() -> contentMd5.equals(Base64.getEncoder().encodeToString(md5.digest()))
+							? Mono.<DataBuffer>empty()
+							: Mono.<DataBuffer>error(new IOException("THE CONTENT-MD5 OF THE BLOB FILE DOESN'T MATCH"))));
+		});
+	}
+
+	/**
+	 * Get a new MD5 digest
+	 *
+	 * @return MessageDigest
+	 */
+	protected static MessageDigest md5()
+	{
+		try
+		{
+			return MessageDigest.getInstance("MD5");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Get the id of a block from the id of its upload and its position, all the ids of a blob must have the same length.
+	 *
+	 * The id of the upload keeps apart the blocks staged at the same time by two uploads of the same blob file,
+	 * so a commit never takes the blocks of the other upload.
+	 *
+	 * @param upload: String random id of the upload, see uploadId
+	 * @param index: long
+	 * @return String
+	 */
+	public static String blockId(String upload, long index)
+	{
+		return Base64.getEncoder()
+				.encodeToString(String.format("%s-%08d", upload, index).getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Get a random id for the blocks of an upload, it always has the same length
+	 *
+	 * @return String
+	 */
+	public static String uploadId()
+	{
+		return UUID.randomUUID().toString();
+	}
+
+	/**
+	 * Check if a failed call against azure can be executed again
+	 *
+	 * @param e: Exception
+	 * @return boolean
+	 */
+	protected static boolean isRetryable(Exception e)
+	{
+		if (e instanceof StorageException)
+		{
+			int status = ((StorageException)e).getHttpStatusCode();
+			return status < 100 || status == 408 || status == 429 || status >= 500;
+		}
+
+		// only the errors of the connection, the other IOExceptions come from the local files or the checks of the content
+		for (Throwable cause = e; cause != null; cause = cause.getCause())
+		{
+			if (cause instanceof SocketException || cause instanceof SocketTimeoutException)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Wait before a new attempt, a random time whose limit grows with each attempt
+	 *
+	 * @param attempt: int
+	 * @throws IOException
+	 */
+	protected void backOff(int attempt) throws IOException
+	{
+		try
+		{
+			Thread.sleep(this.resilience.backOff(attempt));
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("CALL INTERRUPTED BEFORE A NEW ATTEMPT", e);
+		}
+	}
+
+	/**
+	 * Read a block of the file from its position, the channel can be shared by several threads
+	 *
+	 * @param channel: FileChannel
+	 * @param position: long
+	 * @param size: int
+	 * @return byte[]
+	 * @throws IOException
+	 */
+	protected static byte[] readBlock(FileChannel channel, long position, int size) throws IOException
+	{
+		ByteBuffer block = ByteBuffer.allocate(size);
+		while (block.hasRemaining())
+		{
+			if (channel.read(block, position + block.position()) < 0)
+			{
+				throw new EOFException("THE FILE ENDS BEFORE THE BLOCK AT " + position);
+			}
+		}
+		return block.array();
+	}
+
+	/**
+	 * Wait for the upload of a block and get its id
+	 *
+	 * @param future: Future<String>
+	 * @return String
+	 * @throws StorageException
+	 * @throws IOException
+	 */
+	protected static String await(Future<String> future) throws StorageException, IOException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("BLOCK UPLOAD INTERRUPTED", e);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof StorageException)
+			{
+				throw (StorageException)e.getCause();
+			}
+			if (e.getCause() instanceof IOException)
+			{
+				throw (IOException)e.getCause();
+			}
+			throw new IOException("BLOCK UPLOAD ERROR", e.getCause());
+		}
+	}
+
+	/**
+	 * Join the buffers of a block into a single array and release them
+	 *
+	 * @param buffers: List<DataBuffer>
+	 * @return byte[]
+	 */
+	protected static byte[] toBlock(List<DataBuffer> buffers)
+	{
+		byte[] block = new byte[buffers.stream().mapToInt(DataBuffer::readableByteCount).sum()];
+		int offset = 0;
+		for (DataBuffer buffer : buffers)
+		{
+			int count = buffer.readableByteCount();
+			buffer.read(block, offset, count);
+			offset += count;
+			DataBufferUtils.release(buffer);
+		}
+		return block;
 	}
 
 	/**
@@ -171,6 +736,70 @@ public class StorageResource
 		}
 	}
 
+	/**
+	 * Read blob file and move to a String, the content is taken from the cache when
+	 * it has the current version of the blob file.
+	 *
+	 * @param cache: BlobCache
+	 * @return String
+	 */
+	public String readBlobFile(BlobCache cache)
+	{
+		String name = this.blockBlob.getName();
+
+		try
+		{
+			CachedBlob cached = cache.getIfFresh(name);
+
+			if (cached == null)
+			{
+				if (!this.fetchAttributes())
+				{
+					cache.invalidate(name);
+					return "";
+				}
+
+				// a shared resource gets its properties replaced by the other threads, they're read once
+				Attributes attributes = this.attributes();
+
+				if (!cache.isCacheable(attributes.length))
+				{
+					return this.readBlobFile();
+				}
+
+				cached = cache.get(name, attributes.eTag, attributes.lastModified);
+
+				if (cached == null)
+				{
+					cached = cache.put(name, attributes.eTag, attributes.lastModified, attributes.contentType, attributes.cacheControl,
+							this.downloadRange(0, (int)attributes.length, attributes.eTag));
+				}
+			}
+
+			return Charset.defaultCharset()
+					.decode(cached.slice(0, cached.contentLength()))
+					.toString();
+		}
+		catch (CircuitOpenException e)
+		{
+			CachedBlob stale = this.resilience.isServeStale() ? cache.getStale(name) : null;
+
+			if (stale == null)
+			{
+				throw e;
+			}
+
+			StorageResource.log.warn("AZURE IS UNAVAILABLE, {} TAKEN FROM CACHE WITHOUT VALIDATING IT", name);
+			return Charset.defaultCharset()
+					.decode(stale.slice(0, stale.contentLength()))
+					.toString();
+		}
+		catch (IOException | BlobException e)
+		{
+			return "";
+		}
+	}
+
 	/**
 	 * Check if the container already exists
 	 * @return boolean
@@ -179,9 +808,9 @@ public class StorageResource
 	{
 		try
 		{
-			return this.blobContainer.exists();
+			return this.remote("exists", () -> this.blobContainer.exists());
 		}
-		catch (StorageException e)
+		catch (StorageException | IOException e)
 		{
 			StorageResource.log.error("EXIST ERROR: {}", e);
 			throw new RuntimeException("EXIST ERROR", e);
@@ -197,15 +826,137 @@ public class StorageResource
 	{
 		try
 		{
-			return this.blockBlob.exists();
+			return this.remote("exists", () -> this.blockBlob.exists());
 		}
-		catch (StorageException e)
+		catch (StorageException | IOException e)
 		{
 			StorageResource.log.error("EXIST ERROR: {}", e);
 			throw new RuntimeException("EXIST ERROR", e);
 		}
 	}
 
+	/**
+	 * Fetch the properties of the blob file, such as length, ETag and last modified date,
+	 * with a single call. The properties are reused by the next operations.
+	 *
+	 * @return boolean false when the blob file doesn't exist
+	 */
+	public boolean fetchAttributes()
+	{
+		try
+		{
+			this.remote("downloadAttributes", () ->
+			{
+				this.blockBlob.downloadAttributes();
+				return null;
+			});
+			return true;
+		}
+		catch (StorageException | IOException e)
+		{
+			if (e instanceof StorageException && ((StorageException)e).getHttpStatusCode() == HttpURLConnection.HTTP_NOT_FOUND)
+			{
+				return false;
+			}
+			StorageResource.log.error("ATTRIBUTES ERROR: {}", e);
+			throw new RuntimeException("ATTRIBUTES ERROR", e);
+		}
+	}
+
+	/**
+	 * Start a call against azure, its time is recorded in the blob.azure.calls timer of the operation when it's closed
+	 *
+	 * @param operation: String
+	 * @return RemoteCall
+	 */
+	protected RemoteCall call(String operation)
+	{
+		return new RemoteCall(StorageResource.TIMERS.computeIfAbsent(operation, key -> Timer.builder("blob.azure.calls")
+				.description("Calls made against azure and their time, by operation")
+				.tag("operation", key)
+				.register(Metrics.globalRegistry)));
+	}
+
+	/**
+	 * Make a call against azure through the policies of the container, it's made again up to the max retries
+	 * of the policies when it fails with a retryable error
+	 *
+	 * @param operation: String
+	 * @param remote: Remote<T>
+	 * @return T
+	 * @throws StorageException
+	 * @throws IOException
+	 * @throws CircuitOpenException when the circuit is open, azure isn't called
+	 */
+	protected <T> T remote(String operation, Remote<T> remote) throws StorageException, IOException
+	{
+		return this.remote(operation, this.resilience.maxRetries(), remote);
+	}
+
+	/**
+	 * Make a call against azure through the policies of the container, it's made again up to retries times
+	 * when it fails with a retryable error. Each attempt is timed on its own.
+	 *
+	 * @param operation: String
+	 * @param retries: int
+	 * @param remote: Remote<T>
+	 * @return T
+	 * @throws StorageException
+	 * @throws IOException
+	 * @throws CircuitOpenException when the circuit is open, azure isn't called
+	 */
+	protected <T> T remote(String operation, int retries, Remote<T> remote) throws StorageException, IOException
+	{
+		// the circuit counts calls, not attempts, so a call retried by a single client doesn't open it
+		boolean probe = this.resilience.before();
+		boolean failed = true;
+
+		try
+		{
+			for (int attempt = 0;; attempt++)
+			{
+				try (RemoteCall call = this.call(operation))
+				{
+					T result = remote.execute();
+					failed = false;
+					return result;
+				}
+				catch (StorageException | IOException e)
+				{
+					if (!StorageResource.isRetryable(e))
+					{
+						// azure answered, such as 404 or 412
+						failed = false;
+						throw e;
+					}
+
+					// the circuit opened for the other calls while this one was retried
+					if (attempt >= retries || (!probe && this.resilience.state() == AzureResilience.State.OPEN))
+					{
+						throw e;
+					}
+
+					StorageResource.log.warn("RETRYING {} OF {}, ATTEMPT {}: {}", operation,
+							this.blockBlob == null ? this.blobContainer.getName() : this.blockBlob.getName(), attempt + 1, e.getMessage());
+					this.resilience.retried(operation);
+					this.backOff(attempt);
+				}
+			}
+		}
+		finally
+		{
+			// also reached when the wait between two attempts is interrupted, a probe must always be released
+			if (failed)
+			{
+				this.resilience.onFailure(probe);
+			}
+			else
+			{
+				this.resilience.onSuccess(probe);
+			}
+		}
+	}
+
 	/**
 	 * Check the length of the blob file
 	 *
@@ -228,6 +979,74 @@ public class StorageResource
 		return this.blockBlob.getProperties().getLastModified().getTime();
 	}
 
+	/**
+	 * Get the ETag of the blob file
+	 *
+	 * @return String
+	 */
+	public String eTag()
+	{
+		return this.blockBlob.getProperties().getEtag();
+	}
+
+	/**
+	 * Get the content type stored with the blob file
+	 *
+	 * @return String
+	 */
+	public String contentType()
+	{
+		return this.blockBlob.getProperties().getContentType();
+	}
+
+	/**
+	 * Get the Cache-Control stored with the blob file
+	 *
+	 * @return String
+	 */
+	public String cacheControl()
+	{
+		return this.blockBlob.getProperties().getCacheControl();
+	}
+
+	/**
+	 * Get the properties fetched by fetchAttributes at once
+	 *
+	 * @return Attributes
+	 */
+	protected Attributes attributes()
+	{
+		com.microsoft.azure.storage.blob.BlobProperties properties = this.blockBlob.getProperties();
+
+		return new Attributes(properties.getLength(), properties.getEtag(), properties.getLastModified().getTime(),
+				properties.getContentType(), properties.getCacheControl());
+	}
+
+	/**
+	 * Properties of the blob file read at once
+	 */
+	protected static class Attributes
+	{
+		protected final long length;
+
+		protected final String eTag;
+
+		protected final long lastModified;
+
+		protected final String contentType;
+
+		protected final String cacheControl;
+
+		public Attributes(long length, String eTag, long lastModified, String contentType, String cacheControl)
+		{
+			this.length = length;
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+			this.contentType = contentType;
+			this.cacheControl = cacheControl;
+		}
+	}
+
 	/**
 	 * Get the description of the blob file
 	 *
@@ -243,34 +1062,100 @@ public class StorageResource
 	/**
 	 * Delete the blob file
 	 *
-	 * @return boolean
+	 * @return boolean false when the blob file doesn't exist
 	 */
 	public boolean deleteBlob()
 	{
 		StorageResource.log.info("URI: {}", this.blockBlob.getUri());
 		try
 		{
-			return this.blockBlob.deleteIfExists();
+			return this.remote("delete", () -> this.blockBlob.deleteIfExists());
 		}
-		catch (StorageException e)
+		catch (StorageException | IOException e)
 		{
 			StorageResource.log.error("ERROR TO DELETE BLOB {}", e.getMessage());
-			return false;
+			throw new RuntimeException("DELETE ERROR", e);
 		}
 	}
 
 	/**
-	 * Return an iterator object to list all the blob files in the container
+	 * Return an iterator object to list all the blob files in the container, each segment is
+	 * fetched with listBlobsSegmented once the items of the previous one are read
 	 *
 	 * @return Iterable<ListBlobItem>
 	 */
 	public Iterable<ListBlobItem> listBlobs()
 	{
-		if (this.existsContainer())
+		if (!this.existsContainer())
 		{
-			return this.blobContainer.listBlobs();
+			return null;
+		}
+
+		return () -> new Iterator<ListBlobItem>()
+		{
+			ResultSegment<ListBlobItem> segment = StorageResource.this.listBlobsSegmented(null, false, StorageResource.LIST_PAGE_SIZE, null);
+
+			Iterator<ListBlobItem> items = this.segment.getResults().iterator();
+
+			@Override
+			public boolean hasNext()
+			{
+				while (!this.items.hasNext() && this.segment.getContinuationToken() != null)
+				{
+					this.segment = StorageResource.this.listBlobsSegmented(null, false, StorageResource.LIST_PAGE_SIZE,
+							this.segment.getContinuationToken().getNextMarker());
+					this.items = this.segment.getResults().iterator();
+				}
+				return this.items.hasNext();
+			}
+
+			@Override
+			public ListBlobItem next()
+			{
+				if (!this.hasNext())
+				{
+					throw new NoSuchElementException();
+				}
+				return this.items.next();
+			}
+		};
+	}
+
+	/**
+	 * List one segment of the blob files in the container
+	 *
+	 * With a flat listing every blob file is returned, otherwise the blob files under the next
+	 * directory delimiter are grouped into a CloudBlobDirectory.
+	 *
+	 * @param prefix: String null to list the whole container
+	 * @param flat: boolean
+	 * @param maxResults: int max number of items of the segment
+	 * @param marker: String next marker returned by the previous segment, null for the first segment
+	 * @return ResultSegment<ListBlobItem> its continuation token is null on the last segment
+	 */
+	public ResultSegment<ListBlobItem> listBlobsSegmented(String prefix, boolean flat, int maxResults, String marker)
+	{
+		ResultContinuation token = null;
+
+		if (marker != null)
+		{
+			token = new ResultContinuation();
+			token.setContinuationType(ResultContinuationType.BLOB);
+			token.setNextMarker(marker);
+		}
+
+		ResultContinuation continuation = token;
+
+		try
+		{
+			return this.remote("list", () -> this.blobContainer.listBlobsSegmented(prefix, flat,
+					EnumSet.noneOf(BlobListingDetails.class), maxResults, continuation, null, null));
+		}
+		catch (StorageException | IOException e)
+		{
+			StorageResource.log.error("LIST ERROR: {}", e);
+			throw new RuntimeException("LIST ERROR", e);
 		}
-		return null;
 	}
 
 	/**
@@ -283,13 +1168,158 @@ public class StorageResource
 	{
 		try
 		{
-			return this.blockBlob.openInputStream();
+			return this.remote("openInputStream", () -> this.blockBlob.openInputStream());
 		}
 		catch (StorageException e)
 		{
 			StorageResource.log.error("INPUT STREAM ERROR {}", e);
-			throw new IOException("INPUT STREAM ERROR");
+			throw new IOException("INPUT STREAM ERROR", e);
+		}
+	}
+
+	/**
+	 * Download a range of bytes of the blob file
+	 *
+	 * @param offset: long
+	 * @param length: int
+	 * @return byte[]
+	 * @throws IOException
+	 */
+	public byte[] downloadRange(long offset, int length) throws IOException
+	{
+		return this.downloadRange(offset, length, null);
+	}
+
+	/**
+	 * Download a range of bytes of the blob file, when the ETag is given the download fails
+	 * if the blob file was changed, so the ranges of a download never mix two versions.
+	 *
+	 * When verifyDownloads is set the ranges up to 4MB are checked against the MD5 returned by azure.
+	 *
+	 * @param offset: long
+	 * @param length: int
+	 * @param eTag: String or null
+	 * @return byte[]
+	 * @throws IOException
+	 */
+	public byte[] downloadRange(long offset, int length, String eTag) throws IOException
+	{
+		List<byte[]> chunks = this.downloadRange(offset, length, eTag, Math.max(1, length));
+		return chunks.isEmpty() ? new byte[0] : chunks.get(0);
+	}
+
+	/**
+	 * Download a range of bytes of the blob file as arrays of up to chunkSize bytes, the range is read from
+	 * azure as a stream so no array bigger than chunkSize is allocated whatever the length of the range.
+	 *
+	 * @param offset: long
+	 * @param length: int
+	 * @param eTag: String or null
+	 * @param chunkSize: int
+	 * @return List<byte[]>
+	 * @throws IOException
+	 * @throws BlobException with 412 when the blob file doesn't have the ETag anymore
+	 */
+	public List<byte[]> downloadRange(long offset, int length, String eTag, int chunkSize) throws IOException
+	{
+		if (length == 0)
+		{
+			return new ArrayList<>();
+		}
+
+		try
+		{
+			AccessCondition condition = eTag == null
+					? AccessCondition.generateEmptyCondition()
+					: AccessCondition.generateIfMatchCondition(eTag);
+
+			BlobRequestOptions options = new BlobRequestOptions();
+			options.setUseTransactionalContentMD5(this.verifyDownloads && length <= StorageResource.MAX_MD5_RANGE);
+
+			ChunkedOutputStream range = this.remote("downloadRange", () ->
+			{
+				// a new stream on each attempt, so a retry never appends to the bytes of the failed one
+				ChunkedOutputStream out = new ChunkedOutputStream(chunkSize);
+				// only the attempt which succeeded is timed, the waits between the attempts would inflate the hedge delay
+				long start = System.nanoTime();
+				this.blockBlob.downloadRange(offset, (long)length, out, condition, options, null);
+				this.resilience.recordRead(System.nanoTime() - start);
+				return out;
+			});
+
+			if (range.size() < length)
+			{
+				throw new EOFException("THE BLOB ENDS BEFORE THE RANGE " + offset + "-" + (offset + length - 1));
+			}
+			return range.chunks();
 		}
+		catch (StorageException e)
+		{
+			if (e.getHttpStatusCode() == HttpStatus.PRECONDITION_FAILED.value())
+			{
+				// the blob file was replaced, the caller refreshes its properties
+				StorageResource.log.info("THE BLOB FILE {} CHANGED WHILE IT WAS READ", this.blockBlob.getName());
+				throw new BlobException(HttpStatus.PRECONDITION_FAILED, "The blob file changed while it was read.");
+			}
+			StorageResource.log.error("DOWNLOAD RANGE ERROR {}", e);
+			throw new IOException("DOWNLOAD RANGE ERROR", e);
+		}
+	}
+
+	/**
+	 * Get count bytes of the blob file from offset as a stream of buffers of up to bufferSize bytes.
+	 *
+	 * The blob file is fetched with ranged requests of rangeSize bytes, up to parallelism
+	 * requests run at the same time on the scheduler and the buffers are emitted in order.
+	 *
+	 * The ETag of the attributes already fetched is sent with each request, so no other call is needed
+	 * to read the properties of the blob file and a change of the blob file in the middle fails the stream.
+	 * A request slower than most of the last ones is sent again, see AzureResilience.
+	 *
+	 * @param bufferFactory: DataBufferFactory
+	 * @param offset: long
+	 * @param count: long
+	 * @param rangeSize: int
+	 * @param bufferSize: int
+	 * @param parallelism: int
+	 * @param scheduler: Scheduler used to run the blocking calls
+	 * @return Flux<DataBuffer>
+	 */
+	public Flux<DataBuffer> getDataBuffers(DataBufferFactory bufferFactory, long offset, long count, int rangeSize,
+			int bufferSize, int parallelism, Scheduler scheduler)
+	{
+		return this.getDataBuffers(bufferFactory, offset, count, rangeSize, bufferSize, parallelism, scheduler, this.eTag());
+	}
+
+	/**
+	 * Get count bytes of the version of the blob file with the given ETag as a stream of buffers,
+	 * used when the properties were fetched by another StorageResource.
+	 *
+	 * @param bufferFactory: DataBufferFactory
+	 * @param offset: long
+	 * @param count: long
+	 * @param rangeSize: int
+	 * @param bufferSize: int
+	 * @param parallelism: int
+	 * @param scheduler: Scheduler used to run the blocking calls
+	 * @param eTag: String
+	 * @return Flux<DataBuffer>
+	 */
+	public Flux<DataBuffer> getDataBuffers(DataBufferFactory bufferFactory, long offset, long count, int rangeSize,
+			int bufferSize, int parallelism, Scheduler scheduler, String eTag)
+	{
+		int ranges = (int)((count + rangeSize - 1) / rangeSize);
+
+		return Flux.range(0, ranges)
+				.flatMapSequential(range -> this.resilience.hedge(Mono.fromCallable(() ->
+				{
+					long position = offset + (long)range * rangeSize;
+					int length = (int)Math.min(rangeSize, offset + count - position);
+					return this.downloadRange(position, length, eTag, bufferSize);
+				})
+						.subscribeOn(scheduler))
+						.flatMapIterable(chunks -> chunks)
+						.map(bufferFactory::wrap), parallelism);
 	}
 
 	/**
@@ -302,7 +1332,7 @@ public class StorageResource
 	{
 		try
 		{
-			return this.blockBlob.openOutputStream();
+			return this.remote("openOutputStream", () -> this.blockBlob.openOutputStream());
 		}
 		catch (StorageException e)
 		{
@@ -311,6 +1341,103 @@ public class StorageResource
 		}
 	}
 
+	/**
+	 * OutputStream which keeps the bytes written in arrays of up to chunkSize bytes
+	 */
+	protected static class ChunkedOutputStream extends OutputStream
+	{
+		protected final int chunkSize;
+
+		protected final List<byte[]> chunks = new ArrayList<>();
+
+		protected byte[] chunk;
+
+		protected int position;
+
+		protected long size;
+
+		protected ChunkedOutputStream(int chunkSize)
+		{
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		public void write(int b)
+		{
+			this.write(new byte[] {(byte)b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len)
+		{
+			while (len > 0)
+			{
+				if (this.chunk == null || this.position == this.chunk.length)
+				{
+					this.chunk = new byte[this.chunkSize];
+					this.chunks.add(this.chunk);
+					this.position = 0;
+				}
+
+				int length = Math.min(len, this.chunk.length - this.position);
+				System.arraycopy(b, off, this.chunk, this.position, length);
+				this.position += length;
+				this.size += length;
+				off += length;
+				len -= length;
+			}
+		}
+
+		/**
+		 * Get the bytes written, the last array is cut to the bytes written in it
+		 *
+		 * @return List<byte[]>
+		 */
+		protected List<byte[]> chunks()
+		{
+			if (this.chunk != null && this.position < this.chunk.length)
+			{
+				this.chunks.set(this.chunks.size() - 1, Arrays.copyOf(this.chunk, this.position));
+			}
+			return this.chunks;
+		}
+
+		protected long size()
+		{
+			return this.size;
+		}
+	}
+
+	/**
+	 * Call against azure made by remote
+	 */
+	@FunctionalInterface
+	protected interface Remote<T>
+	{
+		T execute() throws StorageException, IOException;
+	}
+
+	/**
+	 * Call against azure in progress, closed once azure answers or fails
+	 */
+	protected static class RemoteCall implements AutoCloseable
+	{
+		protected final Timer timer;
+
+		protected final long start = System.nanoTime();
+
+		protected RemoteCall(Timer timer)
+		{
+			this.timer = timer;
+		}
+
+		@Override
+		public void close()
+		{
+			this.timer.record(System.nanoTime() - this.start, TimeUnit.NANOSECONDS);
+		}
+	}
+
 	/**
 	 * Used to create a temporal blob file
 	 *
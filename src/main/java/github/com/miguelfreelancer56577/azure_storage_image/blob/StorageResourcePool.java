@@ -0,0 +1,136 @@
+package github.com.miguelfreelancer56577.azure_storage_image.blob;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Container scoped pool of the StorageResource objects, one per blob file, shared by the reads of every request
+ * so the reference of the blob file is created and parsed only once.
+ *
+ * The uploads change the properties of their reference of the blob file, so each one gets a new
+ * StorageResource from writer instead of the shared one.
+ *
+ * The pool keeps the most recently used resources up to its max size.
+ *
+ * @author mangelt
+ *
+ */
+@Slf4j
+public class StorageResourcePool
+{
+
+	protected final CloudBlobContainer blobContainer;
+
+	protected final int maxBlockRetries;
+
+	protected final boolean md5;
+
+	protected final boolean verifyDownloads;
+
+	protected final String cacheControl;
+
+	protected final AzureResilience resilience;
+
+	protected final Map<String, StorageResource> resources;
+
+	/**
+	 * @param blobContainer: CloudBlobContainer
+	 * @param maxSize: resources kept in the pool
+	 * @param maxBlockRetries: retries of each failed block of an upload
+	 * @param md5: send the MD5 of the blocks and the Content-MD5 of the uploads
+	 * @param verifyDownloads: check the MD5 of the ranges downloaded
+	 * @param cacheControl: Cache-Control stored with the uploaded blob files
+	 * @param resilience: policies of the calls against azure
+	 */
+	public StorageResourcePool(CloudBlobContainer blobContainer, int maxSize, int maxBlockRetries, boolean md5,
+			boolean verifyDownloads, String cacheControl, AzureResilience resilience)
+	{
+		this.blobContainer = blobContainer;
+		this.maxBlockRetries = maxBlockRetries;
+		this.md5 = md5;
+		this.verifyDownloads = verifyDownloads;
+		this.cacheControl = cacheControl;
+		this.resilience = resilience;
+		this.resources = new LinkedHashMap<String, StorageResource>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, StorageResource> eldest)
+			{
+				return this.size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Get the shared StorageResource of a blob file
+	 *
+	 * @param name: String
+	 * @return StorageResource
+	 */
+	public StorageResource get(String name)
+	{
+		synchronized (this.resources)
+		{
+			return this.resources.computeIfAbsent(name,
+					key -> new SharedStorageResource(this.blobContainer, key, this.maxBlockRetries, this.md5,
+							this.verifyDownloads, this.cacheControl, this.resilience));
+		}
+	}
+
+	/**
+	 * Get a new StorageResource with the settings of the pool to upload a blob file, its reference of the
+	 * blob file isn't shared so the properties set by the upload are only sent with its commit
+	 *
+	 * @param name: String
+	 * @return StorageResource
+	 */
+	public StorageResource writer(String name)
+	{
+		StorageResource resource = new StorageResource(this.blobContainer, name);
+		resource.setMaxBlockRetries(this.maxBlockRetries);
+		resource.setMd5(this.md5);
+		resource.setVerifyDownloads(this.verifyDownloads);
+		resource.setCacheControl(this.cacheControl);
+		resource.setResilience(this.resilience);
+		return resource;
+	}
+
+	/**
+	 * Get a reference to the blob container
+	 *
+	 * @return CloudBlobContainer
+	 */
+	public CloudBlobContainer getCloudBlobContainer()
+	{
+		return this.blobContainer;
+	}
+
+	/**
+	 * Get the policies of the calls against azure
+	 *
+	 * @return AzureResilience
+	 */
+	public AzureResilience getResilience()
+	{
+		return this.resilience;
+	}
+
+	/**
+	 * Get the number of resources in the pool
+	 *
+	 * @return int
+	 */
+	public int size()
+	{
+		synchronized (this.resources)
+		{
+			return this.resources.size();
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package github.com.miguelfreelancer56577.azure_storage_image.cache;
+
+/**
+ * Cache of the content of the blob files read from azure, each entry is kept while its
+ * ETag and last modified date are the same as the ones of the blob file.
+ *
+ * @author mangelt
+ *
+ */
+public interface BlobCache
+{
+
+	/**
+	 * Get the entry of a blob file validated against azure a short time ago,
+	 * so it can be used without checking the blob file again.
+	 *
+	 * @param name: String
+	 * @return CachedBlob or null
+	 */
+	CachedBlob getIfFresh(String name);
+
+	/**
+	 * Get the entry of a blob file if it has the given ETag and last modified date,
+	 * an entry with other values is removed.
+	 *
+	 * @param name: String
+	 * @param eTag: String
+	 * @param lastModified: long
+	 * @return CachedBlob or null
+	 */
+	CachedBlob get(String name, String eTag, long lastModified);
+
+	/**
+	 * Get the entry of a blob file without validating it, used while azure is unavailable
+	 *
+	 * @param name: String
+	 * @return CachedBlob or null
+	 */
+	CachedBlob getStale(String name);
+
+	/**
+	 * Add the content of a blob file
+	 *
+	 * @param name: String
+	 * @param eTag: String
+	 * @param lastModified: long
+	 * @param content: byte[]
+	 * @return CachedBlob
+	 */
+	default CachedBlob put(String name, String eTag, long lastModified, byte[] content)
+	{
+		return this.put(name, eTag, lastModified, null, null, content);
+	}
+
+	/**
+	 * Add the content of a blob file with the content type and Cache-Control sent to the clients
+	 *
+	 * @param name: String
+	 * @param eTag: String
+	 * @param lastModified: long
+	 * @param contentType: String or null
+	 * @param cacheControl: String or null
+	 * @param content: byte[]
+	 * @return CachedBlob
+	 */
+	CachedBlob put(String name, String eTag, long lastModified, String contentType, String cacheControl, byte[] content);
+
+	/**
+	 * Remove the entry of a blob file
+	 *
+	 * @param name: String
+	 */
+	void invalidate(String name);
+
+	/**
+	 * Check if a blob file with this length can be added
+	 *
+	 * @param length: long
+	 * @return boolean
+	 */
+	boolean isCacheable(long length);
+
+	long hits();
+
+	long misses();
+
+	long evictions();
+
+	long usedBytes();
+
+}
@@ -0,0 +1,107 @@
+package github.com.miguelfreelancer56577.azure_storage_image.cache;
+
+import java.nio.ByteBuffer;
+
+import lombok.Getter;
+
+/**
+ * Entry of the BlobCache, the content is kept out of the heap
+ *
+ * @author mangelt
+ *
+ */
+public class CachedBlob
+{
+	@Getter
+	protected final String name;
+
+	@Getter
+	protected final String eTag;
+
+	@Getter
+	protected final long lastModified;
+
+	@Getter
+	protected final String contentType;
+
+	@Getter
+	protected final String cacheControl;
+
+	protected final ByteBuffer content;
+
+	protected volatile long validatedAt;
+
+	public CachedBlob(String name, String eTag, long lastModified, byte[] data)
+	{
+		this(name, eTag, lastModified, null, null, data);
+	}
+
+	public CachedBlob(String name, String eTag, long lastModified, String contentType, String cacheControl, byte[] data)
+	{
+		this.name = name;
+		this.eTag = eTag;
+		this.lastModified = lastModified;
+		this.contentType = contentType;
+		this.cacheControl = cacheControl;
+		this.content = ByteBuffer.allocateDirect(data.length);
+		this.content.put(data);
+		this.content.flip();
+		this.validatedAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * Get the length of the content
+	 *
+	 * @return long
+	 */
+	public long contentLength()
+	{
+		return this.content.capacity();
+	}
+
+	/**
+	 * Check if the entry has the ETag and last modified date of the blob file
+	 *
+	 * @param eTag: String
+	 * @param lastModified: long
+	 * @return boolean
+	 */
+	public boolean isCurrent(String eTag, long lastModified)
+	{
+		return this.eTag != null && this.eTag.equals(eTag) && this.lastModified == lastModified;
+	}
+
+	/**
+	 * Check if the entry was validated against azure in the last maxAge milliseconds
+	 *
+	 * @param maxAge: long
+	 * @return boolean
+	 */
+	public boolean isFresh(long maxAge)
+	{
+		return System.currentTimeMillis() - this.validatedAt < maxAge;
+	}
+
+	/**
+	 * Mark the entry as validated against azure now
+	 */
+	public void validated()
+	{
+		this.validatedAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * Get a read only view of count bytes of the content from offset
+	 *
+	 * @param offset: long
+	 * @param count: long
+	 * @return ByteBuffer
+	 */
+	public ByteBuffer slice(long offset, long count)
+	{
+		ByteBuffer view = this.content.duplicate();
+		view.position((int)offset);
+		view.limit((int)(offset + count));
+		return view.slice().asReadOnlyBuffer();
+	}
+}
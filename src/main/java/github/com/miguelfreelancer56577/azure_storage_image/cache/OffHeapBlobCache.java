@@ -0,0 +1,167 @@
+package github.com.miguelfreelancer56577.azure_storage_image.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * BlobCache which keeps the content of the blob files in direct buffers, limited by the total
+ * size of the entries. The least recently used entries are evicted when the limit is reached.
+ *
+ * @author mangelt
+ *
+ */
+@Slf4j
+public class OffHeapBlobCache implements BlobCache
+{
+
+	protected final long maxBytes;
+
+	protected final long maxEntryBytes;
+
+	protected final long revalidateAfter;
+
+	protected final LinkedHashMap<String, CachedBlob> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	protected long usedBytes;
+
+	protected final AtomicLong hits = new AtomicLong();
+
+	protected final AtomicLong misses = new AtomicLong();
+
+	protected final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param maxBytes: total size of the entries
+	 * @param maxEntryBytes: size of the biggest blob file to be added
+	 * @param revalidateAfter: milliseconds an entry is used without checking the blob file again
+	 */
+	public OffHeapBlobCache(long maxBytes, long maxEntryBytes, long revalidateAfter)
+	{
+		this.maxBytes = maxBytes;
+		this.maxEntryBytes = Math.min(maxEntryBytes, maxBytes);
+		this.revalidateAfter = revalidateAfter;
+	}
+
+	@Override
+	public synchronized CachedBlob getIfFresh(String name)
+	{
+		CachedBlob blob = this.entries.get(name);
+
+		if (blob != null && blob.isFresh(this.revalidateAfter))
+		{
+			this.hits.incrementAndGet();
+			return blob;
+		}
+		return null;
+	}
+
+	@Override
+	public synchronized CachedBlob get(String name, String eTag, long lastModified)
+	{
+		CachedBlob blob = this.entries.get(name);
+
+		if (blob != null && blob.isCurrent(eTag, lastModified))
+		{
+			blob.validated();
+			this.hits.incrementAndGet();
+			return blob;
+		}
+
+		if (blob != null)
+		{
+			log.info("CACHED {} IS STALE", name);
+			this.remove(name);
+		}
+
+		this.misses.incrementAndGet();
+		return null;
+	}
+
+	@Override
+	public synchronized CachedBlob getStale(String name)
+	{
+		CachedBlob blob = this.entries.get(name);
+
+		if (blob != null)
+		{
+			this.hits.incrementAndGet();
+		}
+		return blob;
+	}
+
+	@Override
+	public synchronized CachedBlob put(String name, String eTag, long lastModified, String contentType, String cacheControl,
+			byte[] content)
+	{
+		CachedBlob blob = new CachedBlob(name, eTag, lastModified, contentType, cacheControl, content);
+
+		this.remove(name);
+		this.entries.put(name, blob);
+		this.usedBytes += blob.contentLength();
+
+		Iterator<Map.Entry<String, CachedBlob>> eldest = this.entries.entrySet().iterator();
+		while (this.usedBytes > this.maxBytes && eldest.hasNext())
+		{
+			CachedBlob evicted = eldest.next().getValue();
+			eldest.remove();
+			this.usedBytes -= evicted.contentLength();
+			this.evictions.incrementAndGet();
+		}
+
+		return blob;
+	}
+
+	@Override
+	public synchronized void invalidate(String name)
+	{
+		this.remove(name);
+	}
+
+	@Override
+	public boolean isCacheable(long length)
+	{
+		return length <= this.maxEntryBytes && this.maxBytes > 0;
+	}
+
+	@Override
+	public long hits()
+	{
+		return this.hits.get();
+	}
+
+	@Override
+	public long misses()
+	{
+		return this.misses.get();
+	}
+
+	@Override
+	public long evictions()
+	{
+		return this.evictions.get();
+	}
+
+	@Override
+	public synchronized long usedBytes()
+	{
+		return this.usedBytes;
+	}
+
+	/**
+	 * Remove an entry and release its size
+	 *
+	 * @param name: String
+	 */
+	protected void remove(String name)
+	{
+		CachedBlob blob = this.entries.remove(name);
+		if (blob != null)
+		{
+			this.usedBytes -= blob.contentLength();
+		}
+	}
+}
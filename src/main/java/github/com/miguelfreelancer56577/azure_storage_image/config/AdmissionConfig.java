@@ -0,0 +1,43 @@
+package github.com.miguelfreelancer56577.azure_storage_image.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import github.com.miguelfreelancer56577.azure_storage_image.admission.AdmissionController;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Class used to create the admission of the requests of the routes, its limit is adjusted
+ * from the blob.azure.calls timers recorded by StorageResource
+ *
+ * @author mangelt
+ *
+ */
+@Slf4j
+@Configuration
+public class AdmissionConfig
+{
+
+	@Bean(destroyMethod = "stop")
+	public AdmissionController admissionController(BlobProperties properties, MeterRegistry registry)
+	{
+		BlobProperties.Admission admission = properties.getAdmission();
+
+		log.info("ADMISSION OF {} REQUESTS AT THE SAME TIME, {} PER CLIENT", admission.getInitialLimit(), admission.getPerClientLimit());
+
+		// an upload without Content-Length can be as big as the validation allows
+		long maxBytes = properties.getValidation().getMaxBytes();
+		AdmissionController admissionController = new AdmissionController(admission,
+				maxBytes > 0 ? maxBytes : admission.getUploadBudget(), Metrics.globalRegistry, registry);
+
+		if (admission.isEnabled())
+		{
+			admissionController.start();
+		}
+
+		return admissionController;
+	}
+
+}
@@ -0,0 +1,345 @@
+package github.com.miguelfreelancer56577.azure_storage_image.config;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * Settings used by the blob services, bound from the properties with the "blob" prefix
+ *
+ * @author mangelt
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "blob")
+public class BlobProperties
+{
+	protected Store store = new Store();
+
+	protected Io io = new Io();
+
+	protected Download download = new Download();
+
+	protected Upload upload = new Upload();
+
+	protected Cache cache = new Cache();
+
+	protected Image image = new Image();
+
+	protected Archive archive = new Archive();
+
+	protected Index index = new Index();
+
+	protected Dedup dedup = new Dedup();
+
+	protected Integrity integrity = new Integrity();
+
+	protected Validation validation = new Validation();
+
+	protected Coalesce coalesce = new Coalesce();
+
+	protected Admission admission = new Admission();
+
+	protected Resilience resilience = new Resilience();
+
+	/**
+	 * Settings of the storage of the blob files, cache-control is stored with each uploaded blob file
+	 * and sent with its downloads
+	 */
+	@Data
+	public static class Store
+	{
+		protected StoreType type = StoreType.AZURE;
+
+		protected String root = System.getProperty("java.io.tmpdir") + "/blobs";
+
+		protected int chunkSize = 64 * 1024;
+
+		protected int resourcePoolSize = 10000;
+
+		protected int listPageSize = 1000;
+
+		protected int maxListResults = 5000;
+
+		protected String cacheControl = "public, max-age=86400";
+	}
+
+	/**
+	 * Storages of the blob files
+	 *
+	 * AZURE: the container of azure
+	 * FILESYSTEM: a directory of the local file system, used to run the service without azure
+	 */
+	public enum StoreType
+	{
+		AZURE, FILESYSTEM
+	}
+
+	/**
+	 * Settings of the threads used to run the blocking calls against azure, the work rejected
+	 * because the queue is full is answered with 503 and a Retry-After of retry-after
+	 */
+	@Data
+	public static class Io
+	{
+		protected int threads = Runtime.getRuntime().availableProcessors() * 4;
+
+		protected int queueSize = 1000;
+
+		protected Duration keepAlive = Duration.ofSeconds(60);
+
+		protected Duration retryAfter = Duration.ofSeconds(1);
+	}
+
+	/**
+	 * Settings used to stream the blob files to the client, each ranged request of range-chunk-size bytes
+	 * is read from azure as a stream and sent in buffers of chunk-size bytes
+	 */
+	@Data
+	public static class Download
+	{
+		protected int chunkSize = 64 * 1024;
+
+		protected int rangeChunkSize = 4 * 1024 * 1024;
+
+		protected int parallelism = 4;
+
+		protected long parallelThreshold = 16 * 1024 * 1024;
+	}
+
+	/**
+	 * Settings used to send the files of the client to azure
+	 */
+	@Data
+	public static class Upload
+	{
+		protected UploadMode mode = UploadMode.STREAMING;
+
+		protected int blockSize = 4 * 1024 * 1024;
+
+		protected int maxInFlightBlocks = 4;
+
+		protected int concurrency = 8;
+
+		protected int blockQueueSize = 512;
+
+		protected int maxBlockRetries = 3;
+
+		protected int batchConcurrency = 16;
+	}
+
+	/**
+	 * Settings of the cache of the blob files read from azure, a max-bytes of 0 disables it
+	 */
+	@Data
+	public static class Cache
+	{
+		protected long maxBytes = 256 * 1024 * 1024;
+
+		protected long maxEntryBytes = 8 * 1024 * 1024;
+
+		protected Duration revalidateAfter = Duration.ofSeconds(10);
+	}
+
+	/**
+	 * Settings of the derivatives of the images
+	 *
+	 * The renditions are created after each image is uploaded, one for each size and format,
+	 * no renditions are created when rendition-sizes is empty.
+ * The images with more than max-pixels aren't decoded, each pixel takes 4 bytes of the heap.
+	 */
+	@Data
+	public static class Image
+	{
+		protected int maxDimension = 4096;
+
+		protected long maxPixels = 25 * 1000 * 1000;
+
+		protected String derivativePrefix = "_derived/";
+
+		protected List<Integer> renditionSizes = new ArrayList<>(Arrays.asList(64, 256, 1024));
+
+		protected List<String> renditionFormats = new ArrayList<>(Arrays.asList("jpg"));
+
+		protected int pipelineThreads = Runtime.getRuntime().availableProcessors();
+
+		protected int pipelineQueueSize = Runtime.getRuntime().availableProcessors() * 4;
+
+		protected int pipelineSubmitRetries = 5;
+	}
+
+	/**
+	 * Settings of the archives of many blob files, look-ahead is the number of blob files fetched at the same time
+	 */
+	@Data
+	public static class Archive
+	{
+		protected int lookAhead = 8;
+
+		protected int compressionLevel = 0;
+	}
+
+	/**
+	 * Settings of the local index of the properties of the blob files
+	 */
+	@Data
+	public static class Index
+	{
+		protected boolean enabled = false;
+
+		protected String snapshot = System.getProperty("java.io.tmpdir") + "/blob-index.bin";
+
+		protected Duration reconcileInterval = Duration.ofMinutes(5);
+	}
+
+	/**
+	 * Settings of the content addressed storage, the blob files with the same content are stored once
+	 */
+	@Data
+	public static class Dedup
+	{
+		protected boolean enabled = false;
+
+		protected int maxPointers = 10000;
+	}
+
+	/**
+	 * Settings of the checksums of the blob files
+	 *
+	 * md5: the blocks are sent with their MD5 and the streamed uploads with the Content-MD5 of the whole blob file
+	 * verify-downloads: the ranges and the whole blob files downloaded are checked against their MD5
+	 */
+	@Data
+	public static class Integrity
+	{
+		protected boolean md5 = true;
+
+		protected boolean verifyDownloads = false;
+	}
+
+	/**
+	 * Policies of the uploaded images, checked from the first sniff-bytes of the file before it's sent to azure,
+	 * a max-bytes of 0 doesn't limit the length of the files
+	 */
+	@Data
+	public static class Validation
+	{
+		protected boolean imagesOnly = false;
+
+		protected long maxBytes = 50 * 1024 * 1024;
+
+		protected int maxWidth = 10000;
+
+		protected int maxHeight = 10000;
+
+		protected List<String> formats = new ArrayList<>(Arrays.asList("jpeg", "png", "gif", "bmp", "webp"));
+
+		protected int sniffBytes = 128 * 1024;
+	}
+
+	/**
+	 * Settings of the reads shared by the downloads of the same version of a blob file at the same time,
+	 * only the blob files up to max-replay-bytes are shared
+	 */
+	@Data
+	public static class Coalesce
+	{
+		protected boolean enabled = true;
+
+		protected long maxReplayBytes = 16 * 1024 * 1024;
+	}
+
+	/**
+	 * Settings of the admission of the requests of the routes, the requests beyond the limits are answered
+	 * with 503, or 429 when the client has too many requests, and the Retry-After header
+	 *
+	 * The limit of the requests at the same time moves between min-limit and max-limit, it's cut by decrease-ratio
+	 * when the average time of the calls against azure of latency-operations in the last adjust-interval is over
+	 * latency-target, otherwise it grows by one when the requests reached it. Only the reads and the properties are
+	 * used by default, the blocks and the listings take longer by their size and don't show a slow storage.
+	 *
+	 * upload-budget is the max bytes of the uploads at the same time, an upload without Content-Length
+	 * counts as blob.validation.max-bytes.
+	 *
+	 * The clients are told apart by their address. Behind a proxy set client-header to the header where the proxy
+	 * appends the address of the client, such as X-Forwarded-For, its last address is used because the ones
+	 * before it are sent by the client. It must be empty when the service is reached without a proxy.
+	 */
+	@Data
+	public static class Admission
+	{
+		protected boolean enabled = true;
+
+		protected int initialLimit = 64;
+
+		protected int minLimit = 8;
+
+		protected int maxLimit = 512;
+
+		protected int perClientLimit = 16;
+
+		protected Duration latencyTarget = Duration.ofMillis(500);
+
+		protected List<String> latencyOperations = new ArrayList<>(Arrays.asList("downloadRange", "downloadAttributes", "exists"));
+
+		protected double decreaseRatio = 0.9;
+
+		protected Duration adjustInterval = Duration.ofSeconds(1);
+
+		protected long uploadBudget = 512 * 1024 * 1024;
+
+		protected Duration retryAfter = Duration.ofSeconds(1);
+
+		protected String clientHeader = "";
+	}
+
+	/**
+	 * Settings of the calls against azure, the calls which fail with a retryable error are made again up to max-retries
+	 * times after a random wait up to retry-base-delay doubled by each attempt and limited by retry-max-delay
+	 *
+	 * failure-threshold failed calls in a row open the circuit, the calls fail at once during open-duration and
+	 * then a single call checks if azure answers again. While it's open the downloads are served from the cache
+	 * even when its entries can't be validated, if serve-stale is set.
+	 *
+	 * A ranged read which takes longer than the hedge-percentile of the last reads is sent again, the first answer is used.
+	 */
+	@Data
+	public static class Resilience
+	{
+		protected int maxRetries = 3;
+
+		protected Duration retryBaseDelay = Duration.ofMillis(100);
+
+		protected Duration retryMaxDelay = Duration.ofSeconds(2);
+
+		protected int failureThreshold = 5;
+
+		protected Duration openDuration = Duration.ofSeconds(10);
+
+		protected boolean hedgeEnabled = true;
+
+		protected double hedgePercentile = 0.95;
+
+		protected Duration hedgeMinDelay = Duration.ofMillis(20);
+
+		protected boolean serveStale = true;
+	}
+
+	/**
+	 * Ways to send an uploaded file to azure
+	 *
+	 * FILE: the file is written in a temporal file and then uploaded from disk
+	 * STREAMING: the file is sent to azure as blocks while it's received, it never touches the disk
+	 */
+	public enum UploadMode
+	{
+		FILE, STREAMING
+	}
+}
@@ -0,0 +1,64 @@
+package github.com.miguelfreelancer56577.azure_storage_image.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import github.com.miguelfreelancer56577.azure_storage_image.cache.BlobCache;
+import github.com.miguelfreelancer56577.azure_storage_image.cache.OffHeapBlobCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Class used to create the cache of the blob files read from azure,
+ * declare another BlobCache bean to replace it.
+ *
+ * @author mangelt
+ *
+ */
+@Slf4j
+@Configuration
+public class CacheConfig
+{
+
+	@Bean
+	@ConditionalOnMissingBean
+	public BlobCache blobCache(BlobProperties properties)
+	{
+		BlobProperties.Cache cache = properties.getCache();
+
+		log.info("CREATING BLOB CACHE OF {} BYTES", cache.getMaxBytes());
+
+		return new OffHeapBlobCache(cache.getMaxBytes(), cache.getMaxEntryBytes(), cache.getRevalidateAfter().toMillis());
+	}
+
+	/**
+	 * Meters of the cache, bound to the registry of the actuator for any BlobCache bean
+	 *
+	 * blob.cache.hits, blob.cache.misses and blob.cache.evictions: lookups and entries evicted by the size limit
+	 * blob.cache.used: bytes of the entries
+	 */
+	@Bean
+	public MeterBinder blobCacheMetrics(BlobCache blobCache)
+	{
+		return registry ->
+		{
+			FunctionCounter.builder("blob.cache.hits", blobCache, BlobCache::hits)
+					.description("Lookups of the cache which found the blob file")
+					.register(registry);
+			FunctionCounter.builder("blob.cache.misses", blobCache, BlobCache::misses)
+					.description("Lookups of the cache which didn't find the current version of the blob file")
+					.register(registry);
+			FunctionCounter.builder("blob.cache.evictions", blobCache, BlobCache::evictions)
+					.description("Entries evicted to keep the cache under its size limit")
+					.register(registry);
+			Gauge.builder("blob.cache.used", blobCache, BlobCache::usedBytes)
+					.description("Bytes of the entries of the cache")
+					.baseUnit("bytes")
+					.register(registry);
+		};
+	}
+
+}
@@ -0,0 +1,132 @@
+package github.com.miguelfreelancer56577.azure_storage_image.config;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import github.com.miguelfreelancer56577.azure_storage_image.exception.BusyException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Class used to create the scheduler where the blocking calls against azure are executed,
+ * so they never run on the netty event loop.
+ *
+ * The scheduler has a bounded number of threads and a bounded queue, the tasks beyond the queue
+ * are rejected and the handlers answer them with a 503 status code.
+ *
+ * The renditions of the uploaded images are created by their own executor, sized to the cores.
+ *
+ * @author mangelt
+ *
+ */
+@Slf4j
+@Configuration
+public class SchedulerConfig
+{
+
+	@Bean(destroyMethod = "shutdown")
+	public ThreadPoolExecutor blobIoExecutor(BlobProperties properties, MeterRegistry registry)
+	{
+		BlobProperties.Io io = properties.getIo();
+
+		log.info("CREATING BLOB IO EXECUTOR WITH {} THREADS AND A QUEUE OF {} TASKS", io.getThreads(), io.getQueueSize());
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(io.getThreads(), io.getThreads(),
+				io.getKeepAlive().toMillis(), TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(io.getQueueSize()),
+				new CustomizableThreadFactory("blob-io-"),
+				SchedulerConfig.busy("BLOB IO", io));
+		executor.allowCoreThreadTimeOut(true);
+
+		Gauge.builder("blob.io.queue.depth", executor, pool -> pool.getQueue().size())
+				.description("Tasks waiting for a thread of the blob scheduler")
+				.register(registry);
+		Gauge.builder("blob.io.active.threads", executor, ThreadPoolExecutor::getActiveCount)
+				.description("Threads of the blob scheduler running a call against azure")
+				.register(registry);
+		Gauge.builder("blob.io.pool.size", executor, ThreadPoolExecutor::getPoolSize)
+				.description("Threads created by the blob scheduler")
+				.register(registry);
+
+		return executor;
+	}
+
+	@Bean(destroyMethod = "dispose")
+	public Scheduler blobScheduler(@Qualifier("blobIoExecutor") ThreadPoolExecutor blobIoExecutor)
+	{
+		return Schedulers.fromExecutorService(blobIoExecutor);
+	}
+
+	@Bean(destroyMethod = "shutdown")
+	public ExecutorService blockUploadExecutor(BlobProperties properties, MeterRegistry registry)
+	{
+		BlobProperties.Upload upload = properties.getUpload();
+
+		log.info("CREATING BLOCK UPLOAD EXECUTOR WITH {} THREADS AND A QUEUE OF {} BLOCKS", upload.getConcurrency(),
+				upload.getBlockQueueSize());
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(upload.getConcurrency(), upload.getConcurrency(),
+				0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(upload.getBlockQueueSize()),
+				new CustomizableThreadFactory("blob-block-"),
+				SchedulerConfig.busy("BLOCK UPLOAD", properties.getIo()));
+
+		Gauge.builder("blob.block.queue.depth", executor, pool -> pool.getQueue().size())
+				.description("Blocks of the FILE mode uploads waiting for a thread")
+				.register(registry);
+
+		return executor;
+	}
+
+	/**
+	 * Reject the tasks beyond the queue with a BusyException, answered with 503 and the Retry-After of blob.io
+	 *
+	 * @param pool: String
+	 * @param io: BlobProperties.Io
+	 * @return RejectedExecutionHandler
+	 */
+	protected static RejectedExecutionHandler busy(String pool, BlobProperties.Io io)
+	{
+		long retryAfter = Math.max(1, io.getRetryAfter().getSeconds());
+
+		return (task, executor) ->
+		{
+			throw new BusyException("THE QUEUE OF THE " + pool + " EXECUTOR IS FULL", retryAfter);
+		};
+	}
+
+	@Bean(destroyMethod = "shutdown")
+	public ThreadPoolExecutor derivativeExecutor(BlobProperties properties, MeterRegistry registry)
+	{
+		BlobProperties.Image image = properties.getImage();
+
+		log.info("CREATING DERIVATIVE EXECUTOR WITH {} THREADS AND A QUEUE OF {} IMAGES", image.getPipelineThreads(), image.getPipelineQueueSize());
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(image.getPipelineThreads(), image.getPipelineThreads(),
+				0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(image.getPipelineQueueSize()),
+				new CustomizableThreadFactory("blob-derivative-"),
+				new ThreadPoolExecutor.AbortPolicy());
+
+		Gauge.builder("blob.derivative.queue.depth", executor, pool -> pool.getQueue().size())
+				.description("Uploaded images waiting for their renditions")
+				.register(registry);
+		Gauge.builder("blob.derivative.active.threads", executor, ThreadPoolExecutor::getActiveCount)
+				.description("Threads of the derivative pipeline creating renditions")
+				.register(registry);
+
+		return executor;
+	}
+
+}
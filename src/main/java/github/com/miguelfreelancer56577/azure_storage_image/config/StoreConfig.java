@@ -0,0 +1,96 @@
+package github.com.miguelfreelancer56577.azure_storage_image.config;
+
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.microsoft.azure.storage.RetryNoRetry;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+
+import github.com.miguelfreelancer56577.azure_storage_image.blob.AzureResilience;
+import github.com.miguelfreelancer56577.azure_storage_image.blob.StorageResourcePool;
+import github.com.miguelfreelancer56577.azure_storage_image.store.AzureBlobStore;
+import github.com.miguelfreelancer56577.azure_storage_image.store.BlobStore;
+import github.com.miguelfreelancer56577.azure_storage_image.store.CoalescingBlobStore;
+import github.com.miguelfreelancer56577.azure_storage_image.store.DedupBlobStore;
+import github.com.miguelfreelancer56577.azure_storage_image.store.FileSystemBlobStore;
+import github.com.miguelfreelancer56577.azure_storage_image.store.IndexedBlobStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Class used to create the BlobStore used by the handlers, selected by blob.store.type
+ * and wrapped by the shared reads, the content addressed store and the local index when they are enabled
+ *
+ * @author mangelt
+ *
+ */
+@Slf4j
+@Configuration
+public class StoreConfig
+{
+
+	@Bean
+	public BlobStore blobStore(BlobProperties properties, CloudBlobContainer blobContainer, Scheduler blobScheduler,
+			@Qualifier("blockUploadExecutor") ExecutorService blockUploadExecutor, MeterRegistry registry)
+	{
+		BlobProperties.Store store = properties.getStore();
+
+		log.info("CREATING {} BLOB STORE", store.getType());
+
+		BlobStore blobStore;
+
+		if (store.getType() == BlobProperties.StoreType.FILESYSTEM)
+		{
+			blobStore = new FileSystemBlobStore(Paths.get(store.getRoot()), blobScheduler, store.getChunkSize());
+		}
+		else
+		{
+			BlobProperties.Resilience resilience = properties.getResilience();
+
+			log.info("RETRYING THE CALLS AGAINST AZURE {} TIMES, CIRCUIT OPEN AFTER {} FAILURES", resilience.getMaxRetries(),
+					resilience.getFailureThreshold());
+
+			// the retries are made by AzureResilience, so the ones of the SDK don't multiply them
+			blobContainer.getServiceClient().getDefaultRequestOptions().setRetryPolicyFactory(new RetryNoRetry());
+
+			StorageResourcePool resources = new StorageResourcePool(blobContainer, store.getResourcePoolSize(),
+					properties.getUpload().getMaxBlockRetries(), properties.getIntegrity().isMd5(),
+					properties.getIntegrity().isVerifyDownloads(), store.getCacheControl(), new AzureResilience(resilience, registry));
+
+			blobStore = new AzureBlobStore(resources, blobScheduler, blockUploadExecutor, properties);
+		}
+
+		if (properties.getCoalesce().isEnabled())
+		{
+			log.info("SHARING THE READS OF THE BLOB FILES UP TO {} BYTES", properties.getCoalesce().getMaxReplayBytes());
+
+			blobStore = new CoalescingBlobStore(blobStore, properties.getCoalesce().getMaxReplayBytes(), registry);
+		}
+
+		if (properties.getDedup().isEnabled())
+		{
+			log.info("STORING THE CONTENT OF THE BLOB FILES BY ITS SHA-256 DIGEST");
+
+			blobStore = new DedupBlobStore(blobStore, blobScheduler, properties.getDedup().getMaxPointers());
+		}
+
+		BlobProperties.Index index = properties.getIndex();
+
+		if (!index.isEnabled())
+		{
+			return blobStore;
+		}
+
+		log.info("INDEXING THE BLOB STORE IN {} EVERY {}", index.getSnapshot(), index.getReconcileInterval());
+
+		IndexedBlobStore indexed = new IndexedBlobStore(blobStore, Paths.get(index.getSnapshot()), index.getReconcileInterval());
+		indexed.start();
+		return indexed;
+	}
+
+}
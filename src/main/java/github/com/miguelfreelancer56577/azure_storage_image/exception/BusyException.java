@@ -0,0 +1,28 @@
+package github.com.miguelfreelancer56577.azure_storage_image.exception;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import lombok.Getter;
+
+/**
+ * Exception thrown by a bounded executor whose queue is full, the clients are told to try again after retryAfter
+ *
+ * @author mangelt
+ *
+ */
+@Getter
+public class BusyException extends RejectedExecutionException
+{
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Seconds sent in the Retry-After header
+	 */
+	protected final long retryAfter;
+
+	public BusyException(String message, long retryAfter)
+	{
+		super(message);
+		this.retryAfter = retryAfter;
+	}
+}
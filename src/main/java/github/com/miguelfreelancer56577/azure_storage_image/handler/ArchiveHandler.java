@@ -0,0 +1,170 @@
+package github.com.miguelfreelancer56577.azure_storage_image.handler;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+import github.com.miguelfreelancer56577.azure_storage_image.archive.ArchiveFormat;
+import github.com.miguelfreelancer56577.azure_storage_image.archive.ArchiveWriter;
+import github.com.miguelfreelancer56577.azure_storage_image.config.BlobProperties;
+import github.com.miguelfreelancer56577.azure_storage_image.metrics.BlobMetrics;
+import github.com.miguelfreelancer56577.azure_storage_image.store.BlobInfo;
+import github.com.miguelfreelancer56577.azure_storage_image.store.BlobStore;
+import github.com.miguelfreelancer56577.azure_storage_image.util.BlobUtil;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Class used to handler the petitions of archives of many blob files
+ *
+ * The blob files are fetched from the BlobStore with up to blob.archive.look-ahead of them at the same time,
+ * and written in order into the archive while it's sent to the client, the archive is never kept in memory or disk.
+ *
+ * @author mangelt
+ *
+ */
+@Slf4j
+@Component
+public class ArchiveHandler
+{
+	@Autowired
+	protected BlobStore blobStore;
+
+	@Autowired
+	protected BlobProperties properties;
+
+	@Autowired
+	protected BlobMetrics metrics;
+
+	protected DataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+	/**
+	 * Download an archive with the blob files of the name query params, or the blob files whose name starts with
+	 * the prefix query param, the format query param can be zip or tar.
+	 *
+	 * @param rq
+	 * @return can be
+	 *  ServerResponse.ok()
+	 *  HttpStatus.BAD_REQUEST
+	 */
+	public Mono<ServerResponse> downloadArchive(ServerRequest rq)
+	{
+		Flux<BlobInfo> blobs = rq.queryParam("prefix")
+				.map(this::list)
+				.orElseGet(() -> this.stat(Flux.fromIterable(rq.queryParams().getOrDefault("name", Collections.emptyList()))));
+
+		return this.writeArchive(rq, blobs);
+	}
+
+	/**
+	 * Download an archive with the blob files of the JSON array of names sent in the body,
+	 * used when there are too many names for the query params.
+	 *
+	 * @param rq
+	 * @return same responses of downloadArchive
+	 */
+	public Mono<ServerResponse> downloadArchiveOf(ServerRequest rq)
+	{
+		return this.writeArchive(rq, this.stat(rq.bodyToFlux(String.class)));
+	}
+
+	/**
+	 * Stream the archive of the blob files
+	 *
+	 * @param rq
+	 * @param blobs
+	 * @return
+	 */
+	protected Mono<ServerResponse> writeArchive(ServerRequest rq, Flux<BlobInfo> blobs)
+	{
+		BlobProperties.Archive settings = this.properties.getArchive();
+
+		return Mono.fromCallable(() -> ArchiveFormat.from(rq.queryParam("format").orElse("zip")))
+				.flatMap(format ->
+				{
+					long start = System.nanoTime();
+
+					Flux<Object> entries = blobs.flatMapSequential(blob -> Flux.<Object>concat(Mono.just(blob), this.blobStore.get(blob)),
+							settings.getLookAhead());
+
+					Flux<DataBuffer> archive = Flux.defer(() ->
+					{
+						ArchiveWriter writer = ArchiveWriter.of(format, this.bufferFactory, settings.getCompressionLevel());
+
+						return entries.map(entry -> this.write(writer, entry))
+								.concatWith(Mono.fromCallable(writer::finish))
+								.doFinally(signal -> writer.close());
+					})
+					.filter(buffer -> buffer.readableByteCount() > 0)
+					.doOnComplete(() -> log.info("ARCHIVE SENT IN {} MS", (System.nanoTime() - start) / 1000000))
+					.doOnError(e -> log.error("ARCHIVE ABORTED {}", e.getMessage()));
+
+					return ServerResponse.ok()
+							.contentType(MediaType.parseMediaType(format.getContentType()))
+							.header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"archive." + format.getExtension() + "\"")
+							.body(BodyInserters.fromDataBuffers(this.metrics.countOut(archive)));
+				})
+				.onErrorResume(BlobUtil::onErrorResponse);
+	}
+
+	/**
+	 * Write an entry or a chunk of content into the archive
+	 *
+	 * @param writer
+	 * @param element
+	 * @return
+	 */
+	protected DataBuffer write(ArchiveWriter writer, Object element)
+	{
+		try
+		{
+			return writer.write(element);
+		}
+		catch (IOException e)
+		{
+			throw Exceptions.propagate(e);
+		}
+	}
+
+	/**
+	 * Get the properties of the blob files, the names that don't exist are skipped and
+	 * the names sent twice are archived once
+	 *
+	 * @param names
+	 * @return
+	 */
+	protected Flux<BlobInfo> stat(Flux<String> names)
+	{
+		return names.distinct()
+				.flatMapSequential(name -> this.blobStore.stat(name)
+						.switchIfEmpty(Mono.fromRunnable(() -> log.info("{} FILE DOESN'T EXIST, IT'S SKIPPED", name))),
+						this.properties.getArchive().getLookAhead());
+	}
+
+	/**
+	 * List the blob files of the prefix, the derivatives of the images are skipped unless the prefix asks for them
+	 *
+	 * @param prefix
+	 * @return
+	 */
+	protected Flux<BlobInfo> list(String prefix)
+	{
+		String derivativePrefix = this.properties.getImage().getDerivativePrefix();
+
+		return this.blobStore.list(prefix)
+				.filter(blob -> prefix.startsWith(derivativePrefix) || !blob.getName().startsWith(derivativePrefix));
+	}
+
+}
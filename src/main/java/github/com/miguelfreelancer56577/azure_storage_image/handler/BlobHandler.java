@@ -1,25 +1,52 @@
 package github.com.miguelfreelancer56577.azure_storage_image.handler;
 
 import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.BiFunction;
 
-import org.apache.commons.io.IOUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
 import org.springframework.web.reactive.function.BodyExtractors;
+import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.microsoft.azure.storage.StorageException;
-import com.microsoft.azure.storage.blob.CloudBlobContainer;
 
-import github.com.miguelfreelancer56577.azure_storage_image.blob.StorageResource;
+import github.com.miguelfreelancer56577.azure_storage_image.blob.CircuitOpenException;
+import github.com.miguelfreelancer56577.azure_storage_image.cache.BlobCache;
+import github.com.miguelfreelancer56577.azure_storage_image.cache.CachedBlob;
+import github.com.miguelfreelancer56577.azure_storage_image.config.BlobProperties;
+import github.com.miguelfreelancer56577.azure_storage_image.config.BlobProperties.UploadMode;
 import github.com.miguelfreelancer56577.azure_storage_image.exception.BlobException;
+import github.com.miguelfreelancer56577.azure_storage_image.exception.BusyException;
+import github.com.miguelfreelancer56577.azure_storage_image.image.DerivativePipeline;
+import github.com.miguelfreelancer56577.azure_storage_image.image.ImageValidator;
+import github.com.miguelfreelancer56577.azure_storage_image.metrics.BlobMetrics;
+import github.com.miguelfreelancer56577.azure_storage_image.store.BlobInfo;
+import github.com.miguelfreelancer56577.azure_storage_image.store.BlobStore;
+import github.com.miguelfreelancer56577.azure_storage_image.store.DedupBlobStore;
+import github.com.miguelfreelancer56577.azure_storage_image.store.ListItem;
+import github.com.miguelfreelancer56577.azure_storage_image.store.UploadResult;
 import github.com.miguelfreelancer56577.azure_storage_image.util.BlobUtil;
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 /**
@@ -33,10 +60,27 @@ import reactor.core.publisher.Mono;
 public class BlobHandler
 {
 	@Autowired
-	protected CloudBlobContainer blobContainer;
+	protected BlobStore blobStore;
+
+	@Autowired
+	protected BlobProperties properties;
+
+	@Autowired
+	protected BlobCache blobCache;
+
+	@Autowired
+	protected DerivativePipeline derivativePipeline;
+
+	@Autowired
+	protected ImageValidator imageValidator;
+
+	@Autowired
+	protected BlobMetrics metrics;
 
 	protected ObjectMapper mapper = new ObjectMapper();
 
+	protected DataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
 	/**
 	 * Upload a file to the blob storage
 	 *
@@ -46,6 +90,13 @@ public class BlobHandler
 	 * Validate the name of the file
 	 * validate the extension of the file
 	 *
+	 * The renditions of the images are queued once the file is uploaded, the upload of an image
+	 * is answered with 503 before its body is read while their queue is full.
+	 *
+	 * The previous version of the file is removed from the BlobCache once the file is uploaded.
+	 *
+	 * The time of each stage is recorded in the blob.upload.stage timer.
+	 *
 	 * @param rq
 	 * @return
 	 */
@@ -55,15 +106,30 @@ public class BlobHandler
 
 		log.info("FILE NAME {}", fileName);
 
-		StorageResource sr = new StorageResource(this.blobContainer, fileName);
+		try
+		{
+			this.derivativePipeline.admit(fileName);
+		}
+		catch (BusyException e)
+		{
+			return BlobUtil.onErrorResponse(e);
+		}
+
+		if (this.properties.getUpload().getMode() == UploadMode.STREAMING)
+		{
+			return this.uploadStream(rq, fileName);
+		}
 
 		BlobException bte = new BlobException();
 
-		return rq.body(BodyExtractors.toMultipartData())
-				.flatMap(BlobUtil::getFileFromMultipartData)
+		return this.metrics.stage("multipart", rq.body(BodyExtractors.toMultipartData()))
+				.flatMap(parts -> this.metrics.stage("temp-file", BlobUtil.getFileFromMultipartData(parts)))
+				.doOnNext(file -> this.metrics.countIn(file.length()))
 				.onErrorResume(e ->
 				{
-					BlobException returnedExcpetion = (BlobException)e;
+					BlobException returnedExcpetion = e instanceof BlobException
+							? (BlobException)e
+							: new BlobException(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage());
 
 					bte.setMessage(returnedExcpetion.getMessage());
 					bte.setStatus(returnedExcpetion.getStatus());
@@ -72,40 +138,224 @@ public class BlobHandler
 				})
 				.flatMap(file ->
 				{
-					try
+					if (bte.getStatus() != null)
 					{
-						if (bte.getStatus() != null)
-						{
-							return BlobUtil.onErrorResponse(bte);
-						}
+						return BlobUtil.onErrorResponse(bte);
+					}
+
+					long validation = System.nanoTime();
 
+					try
+					{
 						BlobUtil.isValidFile(fileName, file);
+						this.imageValidator.validate(fileName, file);
+					}
+					catch (BlobException e)
+					{
+						return BlobUtil.onErrorResponse(e);
+					}
+					finally
+					{
+						this.metrics.stage("validation", validation);
+					}
+
+					return this.metrics.stage("upload", this.blobStore.put(fileName, file))
+							.doOnSuccess(blob -> this.blobCache.invalidate(fileName))
+							.flatMap(blob -> this.derivativePipeline.submit(blob).thenReturn(blob))
+							.flatMap(blob ->
+							{
+								log.info("FILE UPLOADED SUCCESSFULLY {}", file);
+								return ServerResponse.ok()
+										.build();
+							})
+							.onErrorResume(BlobUtil::onErrorResponse);
+				});
+	}
+
+	/**
+	 * Upload a file to the blob storage sending its content as blocks while it's received,
+	 * the file is never written in disk.
+	 *
+	 * When the X-Content-SHA256 header has the digest of a file already stored, the file is linked
+	 * to that content and the body isn't read, so clients can send the header without the file.
+	 * The name is validated as the names of the batches, and the stored content must pass the policies
+	 * of the name, otherwise the body is read and validated as any other upload.
+	 *
+	 * @param rq
+	 * @param fileName
+	 * @return
+	 */
+	protected Mono<ServerResponse> uploadStream(ServerRequest rq, String fileName)
+	{
+		String digest = rq.headers().asHttpHeaders().getFirst(BlobUtil.CONTENT_SHA256);
 
-						sr.uploadFromFile(file);
-						log.info("FILE UPLOADED SUCCESSFULLY {}", file);
+		if (digest != null)
+		{
+			try
+			{
+				BlobUtil.isValidName(fileName, this.properties.getImage().getDerivativePrefix(), DedupBlobStore.PREFIX);
+			}
+			catch (BlobException e)
+			{
+				return BlobUtil.onErrorResponse(e);
+			}
 
+			return this.blobStore.link(fileName, digest.toLowerCase(Locale.ROOT), content -> this.imageValidator.accepts(fileName, content))
+					.doOnNext(blob -> this.blobCache.invalidate(fileName))
+					.flatMap(blob -> this.derivativePipeline.submit(blob).thenReturn(blob))
+					.flatMap(blob ->
+					{
+						log.info("FILE LINKED SUCCESSFULLY {}", fileName);
 						return ServerResponse.ok()
 								.build();
+					})
+					.switchIfEmpty(Mono.defer(() -> this.uploadParts(rq, fileName)))
+					.onErrorResume(BlobUtil::onErrorResponse);
+		}
 
-					}
-					catch (BlobException e)
+		return this.uploadParts(rq, fileName);
+	}
+
+	/**
+	 * Upload the file part of the request
+	 *
+	 * @param rq
+	 * @param fileName
+	 * @return
+	 */
+	protected Mono<ServerResponse> uploadParts(ServerRequest rq, String fileName)
+	{
+		return this.metrics.stage("multipart", rq.body(BodyExtractors.toMultipartData()))
+				.flatMap(BlobUtil::getFilePartFromMultipartData)
+				.flatMap(filePart ->
+				{
+					BlobUtil.isValidFile(fileName, filePart);
+
+					return this.metrics.stage("upload", this.blobStore.put(fileName,
+							this.imageValidator.validate(fileName, this.metrics.countIn(filePart.content()))));
+				})
+				.doOnSuccess(blob -> this.blobCache.invalidate(fileName))
+				.flatMap(this.derivativePipeline::submit)
+				.then(Mono.defer(() ->
+				{
+					log.info("FILE UPLOADED SUCCESSFULLY {}", fileName);
+					return ServerResponse.ok()
+							.build();
+				}))
+				.onErrorResume(BlobUtil::onErrorResponse);
+	}
+
+	/**
+	 * Upload all the files of the request to the blob storage, each file part is stored with its own file name.
+	 *
+	 * Up to blob.upload.batch-concurrency files are uploaded at the same time, the error of a file doesn't stop
+	 * the others, the body is a manifest with the result of each file in the order they were sent.
+	 *
+	 * The names of the files can't be paths nor start with the prefixes of the derivatives and the
+	 * content addressed storage, a name sent twice is only uploaded the first time.
+	 *
+	 * @param rq
+	 * @return can be
+	 *  ServerResponse.ok() all the files were uploaded
+	 *  ServerResponse.status(HttpStatus.MULTI_STATUS) some of the files failed
+	 *  HttpStatus.BAD_REQUEST no file was sent
+	 */
+	public Mono<ServerResponse> uploadBatch(ServerRequest rq)
+	{
+		long start = System.nanoTime();
+		Set<String> names = new HashSet<>();
+
+		return rq.body(BodyExtractors.toParts())
+				.filter(part -> part instanceof FilePart)
+				.cast(FilePart.class)
+				.flatMapSequential(filePart -> this.uploadPart(filePart, names), this.properties.getUpload().getBatchConcurrency())
+				.collectList()
+				.flatMap(manifest ->
+				{
+					if (manifest.isEmpty())
 					{
-						return BlobUtil.onErrorResponse(e);
+						return BlobUtil.onErrorResponse(new BlobException(HttpStatus.BAD_REQUEST, "You must provide a file to use this service."));
 					}
-					catch (StorageException | IOException e)
+
+					long failed = manifest.stream().filter(result -> result.getStatus() != HttpStatus.OK.value()).count();
+
+					log.info("BATCH OF {} FILES UPLOADED WITH {} ERRORS IN {} MS", manifest.size(), failed, (System.nanoTime() - start) / 1000000);
+
+					return ServerResponse.status(failed == 0 ? HttpStatus.OK : HttpStatus.MULTI_STATUS)
+							.contentType(MediaType.APPLICATION_JSON)
+							.body(BodyInserters.fromObject(manifest));
+				})
+				.onErrorResume(BlobUtil::onErrorResponse);
+	}
+
+	/**
+	 * Upload one file of a batch, the errors are returned in its result
+	 *
+	 * @param filePart
+	 * @param names: Set<String> names of the files of the batch already seen
+	 * @return
+	 */
+	protected Mono<UploadResult> uploadPart(FilePart filePart, Set<String> names)
+	{
+		String fileName = filePart.filename();
+
+		return this.metrics.stage("upload", Mono.defer(() ->
+				{
+					BlobUtil.isValidName(fileName, this.properties.getImage().getDerivativePrefix(), DedupBlobStore.PREFIX);
+
+					if (!names.add(fileName))
 					{
-						return BlobUtil.onErrorResponse(new BlobException(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage()));
+						throw new BlobException(HttpStatus.BAD_REQUEST, "The file " + fileName + " was sent twice in the batch.");
 					}
+
+					this.derivativePipeline.admit(fileName);
+					return this.blobStore.put(fileName, this.imageValidator.validate(fileName, this.metrics.countIn(filePart.content())));
+				}))
+				.doOnSuccess(blob -> this.blobCache.invalidate(fileName))
+				.flatMap(blob -> this.derivativePipeline.submit(blob).thenReturn(blob))
+				.map(blob -> UploadResult.builder()
+						.name(fileName)
+						.status(HttpStatus.OK.value())
+						.length(blob.getLength())
+						.eTag(blob.getETag())
+						.build())
+				.onErrorResume(e ->
+				{
+					BlobException error = BlobUtil.toBlobException(e);
+
+					log.error("FILE {} OF THE BATCH COULDN'T BE UPLOADED {}", fileName, error.getMessage());
+
+					return Mono.just(UploadResult.builder()
+							.name(fileName)
+							.status(error.getStatus().value())
+							.message(error.getMessage())
+							.build());
 				});
 	}
 
 	/**
 	 * Download file from the blob storage
 	 *
+	 * The file is streamed to the client from the BlobStore reusing the properties fetched to check the file exists.
+	 *
+	 * A single byte range can be requested with the Range and If-Range headers.
+	 *
+	 * The files smaller than blob.cache.max-entry-bytes are kept in the BlobCache while their ETag doesn't change.
+	 *
+	 * The ETag and Last-Modified headers are sent, when the If-None-Match or If-Modified-Since headers
+	 * show the client has the current version only the properties of the blob file are checked.
+	 *
+	 * The Content-Type and Cache-Control stored with the blob file are sent, when they aren't stored
+	 * the type is taken from the name and the policy from blob.store.cache-control.
+	 *
 	 * @param rq
 	 * @return cane be
 	 *  ServerResponse.ok()
+	 *  ServerResponse.status(HttpStatus.NOT_MODIFIED)
+	 *  ServerResponse.status(HttpStatus.PARTIAL_CONTENT)
+	 *  ServerResponse.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
 	 *  ServerResponse.notFound()
+	 *  HttpStatus.SERVICE_UNAVAILABLE
 	 *  SHttpStatus.INTERNAL_SERVER_ERROR
 	 */
 	public Mono<ServerResponse> downloadFile(ServerRequest rq)
@@ -114,31 +364,304 @@ public class BlobHandler
 
 		log.info("FILE NAME {}", fileName);
 
-		return Mono.just(fileName)
-				.flatMap(fileToDownload ->
+		return this.downloadBlob(rq, fileName);
+	}
+
+	/**
+	 * Download a blob file from the blob storage, used by the handlers of the derived files
+	 *
+	 * @param rq
+	 * @param fileName
+	 * @return same responses of downloadFile
+	 */
+	public Mono<ServerResponse> downloadBlob(ServerRequest rq, String fileName)
+	{
+		long start = System.nanoTime();
+
+		CachedBlob fresh = this.blobCache.getIfFresh(fileName);
+
+		if (fresh != null)
+		{
+			if (BlobUtil.isNotModified(rq, fresh.getETag(), fresh.getLastModified()))
+			{
+				return this.notModified(fresh.getETag(), fresh.getLastModified(), fresh.getCacheControl());
+			}
+
+			log.info("{} FILE TAKEN FROM CACHE", fileName);
+			return this.writeBlob(rq, fresh);
+		}
+
+		return this.blobStore.stat(fileName)
+				.flatMap(blob ->
 				{
-					try
+					log.info("{} FILE EXITS", fileName);
+
+					if (BlobUtil.isNotModified(rq, blob.getETag(), blob.getLastModified()))
 					{
-						StorageResource sr = new StorageResource(this.blobContainer, fileToDownload);
-						if (sr.existsBlob())
-						{
-							log.info("{} FILE EXITS", fileName);
-							InputStream in = sr.getInputStream();
-							byte[] stream = IOUtils.toByteArray(in);
-							in.close();
-							return ServerResponse.ok()
-									.syncBody(stream);
-						}
-						else
-						{
-							return ServerResponse.notFound().build();
-						}
+						this.traceDownload(fileName, start);
+						return this.notModified(blob.getETag(), blob.getLastModified(), blob.getCacheControl());
 					}
-					catch (IOException e)
+
+					CachedBlob cached = this.blobCache.get(fileName, blob.getETag(), blob.getLastModified());
+
+					if (cached != null)
 					{
-						return BlobUtil.onErrorResponse(new BlobException(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage()));
+						log.info("{} FILE TAKEN FROM CACHE", fileName);
+						this.traceDownload(fileName, start);
+						return this.writeBlob(rq, cached);
 					}
-				});
+
+					if (this.blobCache.isCacheable(blob.getLength()))
+					{
+						return this.cacheBlob(blob)
+								.doOnSuccess(cachedBlob -> this.traceDownload(fileName, start))
+								.flatMap(cachedBlob -> this.writeBlob(rq, cachedBlob));
+					}
+
+					return this.writeBlob(rq, blob, start);
+				})
+				.switchIfEmpty(Mono.defer(() ->
+				{
+					this.blobCache.invalidate(fileName);
+					return ServerResponse.notFound().build();
+				}))
+				.onErrorResume(CircuitOpenException.class, e -> this.writeStale(rq, fileName, e))
+				.onErrorResume(BlobUtil::onErrorResponse);
+	}
+
+	/**
+	 * Write the cached blob file without validating it while azure is unavailable, when
+	 * blob.resilience.serve-stale is set and the blob file is in the cache
+	 *
+	 * @param rq
+	 * @param fileName
+	 * @param e: CircuitOpenException
+	 * @return same responses of writeBlob or the error
+	 */
+	protected Mono<ServerResponse> writeStale(ServerRequest rq, String fileName, CircuitOpenException e)
+	{
+		CachedBlob stale = this.properties.getResilience().isServeStale() ? this.blobCache.getStale(fileName) : null;
+
+		if (stale == null)
+		{
+			return Mono.error(e);
+		}
+
+		log.warn("AZURE IS UNAVAILABLE, {} FILE TAKEN FROM CACHE WITHOUT VALIDATING IT", fileName);
+		this.metrics.stale();
+
+		if (BlobUtil.isNotModified(rq, stale.getETag(), stale.getLastModified()))
+		{
+			return this.notModified(stale.getETag(), stale.getLastModified(), stale.getCacheControl());
+		}
+		return this.writeBlob(rq, stale);
+	}
+
+	/**
+	 * List the blob files as a stream of JSON lines, the blob files are sent while they are listed.
+	 *
+	 * Query params:
+	 *
+	 * prefix: only the blob files whose name starts with it
+	 * delimiter: group the blob files under the delimiter as directories
+	 * maxResults: max number of items, when there are more the last line has the continuation,
+	 * blob.store.max-list-results when it's not sent or it's bigger
+	 * token: continuation of the previous page
+	 *
+	 * @param rq
+	 * @return can be
+	 *  ServerResponse.ok()
+	 *  HttpStatus.BAD_REQUEST
+	 */
+	public Mono<ServerResponse> listFiles(ServerRequest rq)
+	{
+		return Mono.fromCallable(() ->
+		{
+			int maxResults;
+
+			try
+			{
+				maxResults = rq.queryParam("maxResults").map(Integer::parseInt).orElse(this.properties.getStore().getMaxListResults());
+			}
+			catch (NumberFormatException e)
+			{
+				maxResults = 0;
+			}
+
+			if (maxResults < 1)
+			{
+				throw new BlobException(HttpStatus.BAD_REQUEST, "The maxResults must be a number bigger than 0.");
+			}
+
+			return this.blobStore.list(rq.queryParam("prefix").orElse(null), rq.queryParam("delimiter").orElse(null),
+					Math.min(maxResults, this.properties.getStore().getMaxListResults()), rq.queryParam("token").orElse(null));
+		})
+				.flatMap(items -> ServerResponse.ok()
+						.contentType(MediaType.APPLICATION_STREAM_JSON)
+						.body(items, ListItem.class))
+				.onErrorResume(BlobUtil::onErrorResponse);
+	}
+
+	/**
+	 * Download the whole blob file and add it to the cache
+	 *
+	 * @param blob
+	 * @return
+	 */
+	protected Mono<CachedBlob> cacheBlob(BlobInfo blob)
+	{
+		return DataBufferUtils.join(this.blobStore.get(blob))
+				.map(buffer ->
+				{
+					byte[] content = new byte[buffer.readableByteCount()];
+					buffer.read(content);
+					DataBufferUtils.release(buffer);
+					return content;
+				})
+				.defaultIfEmpty(new byte[0])
+				.map(content -> this.blobCache.put(blob.getName(), blob.getETag(), blob.getLastModified(), blob.getContentType(),
+						blob.getCacheControl(), content));
+	}
+
+	/**
+	 * Write the whole blob file or the range requested by the client into the response
+	 *
+	 * @param rq
+	 * @param blob
+	 * @param start: time when the request was received, in nanoseconds
+	 * @return
+	 */
+	protected Mono<ServerResponse> writeBlob(ServerRequest rq, BlobInfo blob, long start)
+	{
+		return this.writeBlob(rq, blob.getName(), blob.getLength(), blob.getETag(), blob.getLastModified(),
+				blob.getContentType(), blob.getCacheControl(), (offset, count) -> this.blobStore.getRange(blob, offset, count)
+						.doOnComplete(() -> this.traceDownload(blob.getName(), start)));
+	}
+
+	/**
+	 * Write the whole cached blob file or the range requested by the client into the response
+	 *
+	 * @param rq
+	 * @param blob
+	 * @return
+	 */
+	protected Mono<ServerResponse> writeBlob(ServerRequest rq, CachedBlob blob)
+	{
+		return this.writeBlob(rq, blob.getName(), blob.contentLength(), blob.getETag(), blob.getLastModified(),
+				blob.getContentType(), blob.getCacheControl(), (offset, count) -> Flux.just(this.bufferFactory.wrap(blob.slice(offset, count))));
+	}
+
+	/**
+	 * Write the whole blob file or the range requested by the client into the response
+	 *
+	 * @param rq
+	 * @param name
+	 * @param length
+	 * @param eTag
+	 * @param lastModified
+	 * @param contentType: stored with the blob file or null
+	 * @param cacheControl: stored with the blob file or null
+	 * @param reader: function used to get the bytes of the blob file from an offset
+	 * @return
+	 */
+	protected Mono<ServerResponse> writeBlob(ServerRequest rq, String name, long length, String eTag, long lastModified,
+			String contentType, String cacheControl, BiFunction<Long, Long, Flux<DataBuffer>> reader)
+	{
+		MediaType mediaType = BlobUtil.getContentType(name, contentType);
+
+		List<HttpRange> ranges = BlobUtil.getRanges(rq, eTag, lastModified);
+
+		if (ranges.size() != 1)
+		{
+			return ServerResponse.ok()
+					.header(HttpHeaders.ACCEPT_RANGES, "bytes")
+					.headers(headers -> this.cacheHeaders(headers, cacheControl))
+					.eTag(eTag)
+					.lastModified(this.toDate(lastModified))
+					.contentType(mediaType)
+					.contentLength(length)
+					.body(BodyInserters.fromDataBuffers(this.metrics.countOut(reader.apply(0L, length))));
+		}
+
+		HttpRange range = ranges.get(0);
+		long start = range.getRangeStart(length);
+		long end = range.getRangeEnd(length);
+
+		if (start >= length)
+		{
+			return ServerResponse.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+					.header(HttpHeaders.CONTENT_RANGE, "bytes */" + length)
+					.build();
+		}
+
+		log.info("{} RANGE {}-{}", name, start, end);
+
+		return ServerResponse.status(HttpStatus.PARTIAL_CONTENT)
+				.header(HttpHeaders.ACCEPT_RANGES, "bytes")
+				.header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length)
+				.headers(headers -> this.cacheHeaders(headers, cacheControl))
+				.eTag(eTag)
+				.lastModified(this.toDate(lastModified))
+				.contentType(mediaType)
+				.contentLength(end - start + 1)
+				.body(BodyInserters.fromDataBuffers(this.metrics.countOut(reader.apply(start, end - start + 1))));
+	}
+
+	/**
+	 * Answer that the copy of the client is the current version of the blob file, without body
+	 *
+	 * @param eTag
+	 * @param lastModified
+	 * @param cacheControl: stored with the blob file or null
+	 * @return
+	 */
+	protected Mono<ServerResponse> notModified(String eTag, long lastModified, String cacheControl)
+	{
+		return ServerResponse.status(HttpStatus.NOT_MODIFIED)
+				.headers(headers -> this.cacheHeaders(headers, cacheControl))
+				.eTag(eTag)
+				.lastModified(this.toDate(lastModified))
+				.build();
+	}
+
+	/**
+	 * Add the Cache-Control of the blob file, or blob.store.cache-control when it has none, and stop the
+	 * clients from guessing another content type
+	 *
+	 * @param headers
+	 * @param cacheControl: stored with the blob file or null
+	 */
+	protected void cacheHeaders(HttpHeaders headers, String cacheControl)
+	{
+		String policy = StringUtils.hasText(cacheControl) ? cacheControl : this.properties.getStore().getCacheControl();
+
+		if (StringUtils.hasText(policy))
+		{
+			headers.setCacheControl(policy);
+		}
+		headers.set("X-Content-Type-Options", "nosniff");
+	}
+
+	/**
+	 * Transform the milliseconds of a date to be used in the headers
+	 *
+	 * @param time
+	 * @return
+	 */
+	protected ZonedDateTime toDate(long time)
+	{
+		return ZonedDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneOffset.UTC);
+	}
+
+	/**
+	 * Log the time taken by a download
+	 *
+	 * @param name
+	 * @param start: time when the request was received, in nanoseconds
+	 */
+	protected void traceDownload(String name, long start)
+	{
+		log.info("DOWNLOAD OF {} TOOK {} MS", name, (System.nanoTime() - start) / 1000000);
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,56 @@
+package github.com.miguelfreelancer56577.azure_storage_image.handler;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+import github.com.miguelfreelancer56577.azure_storage_image.config.BlobProperties;
+import github.com.miguelfreelancer56577.azure_storage_image.image.DerivativeService;
+import github.com.miguelfreelancer56577.azure_storage_image.image.ImageSpec;
+import github.com.miguelfreelancer56577.azure_storage_image.util.BlobUtil;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+/**
+ * Class used to handler the petitions of the derivatives of the images
+ *
+ * @author mangelt
+ *
+ */
+@Slf4j
+@Component
+public class ImageHandler
+{
+	@Autowired
+	protected DerivativeService derivativeService;
+
+	@Autowired
+	protected BlobHandler blobHandler;
+
+	@Autowired
+	protected BlobProperties properties;
+
+	/**
+	 * Download an image resized with the w, h, fit and format query params,
+	 * the derivative is created the first time and then downloaded as any other blob file.
+	 *
+	 * @param rq
+	 * @return can be
+	 *  the responses of BlobHandler.downloadFile
+	 *  HttpStatus.BAD_REQUEST
+	 *  HttpStatus.UNSUPPORTED_MEDIA_TYPE
+	 */
+	public Mono<ServerResponse> resizeImage(ServerRequest rq)
+	{
+		String fileName = rq.pathVariable("filename");
+
+		log.info("IMAGE NAME {}", fileName);
+
+		return Mono.fromCallable(() -> ImageSpec.from(rq, fileName, this.properties.getImage().getMaxDimension()))
+				.flatMap(spec -> this.derivativeService.derive(fileName, spec))
+				.flatMap(derivative -> this.blobHandler.downloadBlob(rq, derivative.getName()))
+				.onErrorResume(BlobUtil::onErrorResponse);
+	}
+
+}
@@ -0,0 +1,216 @@
+package github.com.miguelfreelancer56577.azure_storage_image.image;
+
+import java.awt.image.BufferedImage;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.stereotype.Component;
+
+import github.com.miguelfreelancer56577.azure_storage_image.config.BlobProperties;
+import github.com.miguelfreelancer56577.azure_storage_image.exception.BusyException;
+import github.com.miguelfreelancer56577.azure_storage_image.image.ImageSpec.Fit;
+import github.com.miguelfreelancer56577.azure_storage_image.store.BlobInfo;
+import github.com.miguelfreelancer56577.azure_storage_image.store.BlobStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Class used to create the renditions of the images after they are uploaded.
+ *
+ * Each uploaded image is queued in the derivative executor, the original is read and decoded once
+ * and then every rendition is resized, encoded and stored with the same key used by DerivativeService,
+ * so the image endpoint finds them already created.
+ *
+ * The uploads of images are answered with a 503 status code before their body is read while the queue
+ * is full. When the queue fills between that check and the end of the upload the image waits and tries again,
+ * after blob.image.pipeline-submit-retries its renditions are dropped and counted in blob.derivative.dropped,
+ * the upload already succeeded and DerivativeService creates them when they are requested.
+ *
+ * The time of each stage is recorded in the blob.derivative.stage timer.
+ *
+ * @author mangelt
+ *
+ */
+@Slf4j
+@Component
+public class DerivativePipeline
+{
+	@Autowired
+	protected BlobStore blobStore;
+
+	@Autowired
+	protected BlobProperties properties;
+
+	@Autowired
+	@Qualifier("derivativeExecutor")
+	protected ThreadPoolExecutor derivativeExecutor;
+
+	@Autowired
+	protected MeterRegistry registry;
+
+	protected DataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+	/**
+	 * Check the queue has room for the renditions of a blob file before its upload is accepted
+	 *
+	 * @param fileName: String
+	 * @throws BusyException when it's an image and the queue is full
+	 */
+	public void admit(String fileName)
+	{
+		if (this.isRendered(fileName) && this.derivativeExecutor.getQueue().remainingCapacity() == 0)
+		{
+			throw new BusyException("THE QUEUE OF THE RENDITIONS IS FULL",
+					Math.max(1, this.properties.getIo().getRetryAfter().getSeconds()));
+		}
+	}
+
+	/**
+	 * Queue the creation of the renditions of an uploaded blob file, nothing is done when it isn't an image
+	 *
+	 * @param original: BlobInfo of the uploaded blob file
+	 * @return Mono<Void> completed once the image is queued or its renditions are dropped, it never fails
+	 */
+	public Mono<Void> submit(BlobInfo original)
+	{
+		BlobProperties.Image image = this.properties.getImage();
+
+		if (!this.isRendered(original.getName()))
+		{
+			return Mono.empty();
+		}
+
+		long queued = System.nanoTime();
+
+		return Mono.<Void>fromRunnable(() -> this.derivativeExecutor.execute(() ->
+				{
+					this.timer("queue").record(Duration.ofNanos(System.nanoTime() - queued));
+					this.process(original);
+				}))
+				.retryBackoff(image.getPipelineSubmitRetries(), Duration.ofMillis(50), Duration.ofSeconds(1))
+				.onErrorResume(e ->
+				{
+					log.warn("THE RENDITIONS OF {} WERE DROPPED, THE QUEUE IS FULL", original.getName());
+					this.registry.counter("blob.derivative.dropped").increment();
+					return Mono.empty();
+				});
+	}
+
+	/**
+	 * Check if the renditions of a blob file are created, only the images have them
+	 *
+	 * @param fileName: String
+	 * @return boolean
+	 */
+	protected boolean isRendered(String fileName)
+	{
+		return !this.properties.getImage().getRenditionSizes().isEmpty() && ImageResizer.isImage(fileName);
+	}
+
+	/**
+	 * Get the specifications of the renditions, one for each size and format
+	 *
+	 * @return List<ImageSpec>
+	 */
+	public List<ImageSpec> renditions()
+	{
+		BlobProperties.Image image = this.properties.getImage();
+		List<ImageSpec> specs = new ArrayList<>();
+
+		for (Integer size : image.getRenditionSizes())
+		{
+			for (String format : image.getRenditionFormats())
+			{
+				specs.add(new ImageSpec(size, size, Fit.CONTAIN, format));
+			}
+		}
+		return specs;
+	}
+
+	/**
+	 * Create the renditions of an image, it runs on a thread of the derivative executor
+	 *
+	 * @param original: BlobInfo
+	 */
+	protected void process(BlobInfo original)
+	{
+		String prefix = this.properties.getImage().getDerivativePrefix();
+
+		try
+		{
+			byte[] content = this.stage("fetch", () -> DataBufferUtils.join(this.blobStore.get(original))
+					.map(buffer ->
+					{
+						byte[] bytes = new byte[buffer.readableByteCount()];
+						buffer.read(bytes);
+						DataBufferUtils.release(buffer);
+						return bytes;
+					})
+					.block());
+
+			BufferedImage source = this.stage("decode", () -> ImageResizer.decode(content, this.properties.getImage().getMaxPixels()));
+
+			for (ImageSpec spec : this.renditions())
+			{
+				String key = spec.key(prefix, original.getName(), original.getETag());
+
+				BufferedImage resized = this.stage("resize", () -> ImageResizer.resize(source, spec));
+				byte[] encoded = this.stage("encode", () -> ImageResizer.encode(resized, spec.getFormat()));
+				this.stage("store", () -> this.blobStore.put(key, Flux.just(this.bufferFactory.wrap(encoded))).block());
+
+				log.info("RENDITION {} CREATED", key);
+			}
+		}
+		catch (Exception e)
+		{
+			log.error("THE RENDITIONS OF {} COULDN'T BE CREATED", original.getName(), e);
+		}
+	}
+
+	/**
+	 * Run a stage of the pipeline recording its time
+	 *
+	 * @param stage: String name of the stage
+	 * @param task: Callable<T>
+	 * @return T result of the stage
+	 * @throws Exception
+	 */
+	protected <T> T stage(String stage, Callable<T> task) throws Exception
+	{
+		Timer.Sample sample = Timer.start(this.registry);
+
+		try
+		{
+			return task.call();
+		}
+		finally
+		{
+			sample.stop(this.timer(stage));
+		}
+	}
+
+	/**
+	 * Get the timer of a stage of the pipeline
+	 *
+	 * @param stage: String
+	 * @return Timer
+	 */
+	protected Timer timer(String stage)
+	{
+		return Timer.builder("blob.derivative.stage")
+				.description("Time taken by each stage of the creation of the renditions")
+				.tag("stage", stage)
+				.register(this.registry);
+	}
+}
@@ -0,0 +1,105 @@
+package github.com.miguelfreelancer56577.azure_storage_image.image;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import github.com.miguelfreelancer56577.azure_storage_image.config.BlobProperties;
+import github.com.miguelfreelancer56577.azure_storage_image.exception.BlobException;
+import github.com.miguelfreelancer56577.azure_storage_image.store.BlobInfo;
+import github.com.miguelfreelancer56577.azure_storage_image.store.BlobStore;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Class used to get the derivatives of the images, such as thumbnails.
+ *
+ * Each derivative is stored as its own blob file under a key built from the original image, its ETag
+ * and the specification, so it's created once and then read as any other blob file.
+ * Concurrent requests of the same derivative share a single resize.
+ *
+ * @author mangelt
+ *
+ */
+@Slf4j
+@Component
+public class DerivativeService
+{
+	@Autowired
+	protected BlobStore blobStore;
+
+	@Autowired
+	protected BlobProperties properties;
+
+	protected DataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+	protected final Map<String, Mono<BlobInfo>> inFlight = new ConcurrentHashMap<>();
+
+	/**
+	 * Get the derivative of an image, it's created when it doesn't exist
+	 *
+	 * @param name: String name of the original image
+	 * @param spec: ImageSpec
+	 * @return Mono<BlobInfo> properties of the derivative
+	 */
+	public Mono<BlobInfo> derive(String name, ImageSpec spec)
+	{
+		return this.blobStore.stat(name)
+				.switchIfEmpty(Mono.error(new BlobException(HttpStatus.NOT_FOUND, "The image doesn't exist.")))
+				.flatMap(original ->
+				{
+					String key = spec.key(this.properties.getImage().getDerivativePrefix(), name, original.getETag());
+
+					return this.blobStore.stat(key)
+							.switchIfEmpty(Mono.defer(() -> this.inFlight.computeIfAbsent(key,
+									k -> this.create(original, k, spec)
+											.doFinally(signal -> this.inFlight.remove(k))
+											.cache())));
+				});
+	}
+
+	/**
+	 * Resize the original image and store the derivative
+	 *
+	 * @param original: BlobInfo
+	 * @param key: String
+	 * @param spec: ImageSpec
+	 * @return Mono<BlobInfo>
+	 */
+	protected Mono<BlobInfo> create(BlobInfo original, String key, ImageSpec spec)
+	{
+		long start = System.nanoTime();
+
+		return DataBufferUtils.join(this.blobStore.get(original))
+				.map(buffer ->
+				{
+					byte[] content = new byte[buffer.readableByteCount()];
+					buffer.read(content);
+					DataBufferUtils.release(buffer);
+					return content;
+				})
+				.publishOn(Schedulers.parallel())
+				.map(content ->
+				{
+					try
+					{
+						return ImageResizer.resize(content, spec, this.properties.getImage().getMaxPixels());
+					}
+					catch (IOException e)
+					{
+						throw new BlobException(HttpStatus.UNSUPPORTED_MEDIA_TYPE, e.getMessage());
+					}
+				})
+				.flatMap(derivative -> this.blobStore.put(key, Flux.just(this.bufferFactory.wrap(derivative))))
+				.doOnSuccess(blob -> log.info("DERIVATIVE {} CREATED IN {} MS", key, (System.nanoTime() - start) / 1000000));
+	}
+}
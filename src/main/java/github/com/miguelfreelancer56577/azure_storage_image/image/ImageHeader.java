@@ -0,0 +1,190 @@
+package github.com.miguelfreelancer56577.azure_storage_image.image;
+
+import java.util.Locale;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Format and size of an image read from the first bytes of the file, without decoding it
+ *
+ * @author mangelt
+ *
+ */
+@Data
+@AllArgsConstructor
+public class ImageHeader
+{
+	protected Format format;
+	protected int width;
+	protected int height;
+
+	/**
+	 * Formats detected by their magic bytes
+	 */
+	public enum Format
+	{
+		JPEG, PNG, GIF, BMP, WEBP;
+
+		/**
+		 * Get the content type of the format
+		 *
+		 * @return String
+		 */
+		public String getContentType()
+		{
+			return "image/" + this.name().toLowerCase(Locale.ROOT);
+		}
+
+		/**
+		 * Get the format of an extension
+		 *
+		 * @param extension: String
+		 * @return Format null when it's not an image extension
+		 */
+		public static Format fromExtension(String extension)
+		{
+			switch (extension.toLowerCase(Locale.ROOT))
+			{
+				case "jpg":
+				case "jpeg":
+				case "jpe":
+					return JPEG;
+				case "png":
+					return PNG;
+				case "gif":
+					return GIF;
+				case "bmp":
+					return BMP;
+				case "webp":
+					return WEBP;
+				default:
+					return null;
+			}
+		}
+	}
+
+	/**
+	 * Read the format and size of an image from its first bytes
+	 *
+	 * @param head: byte[] first bytes of the file
+	 * @param length: int number of bytes of head read
+	 * @return ImageHeader null when the format is unknown, the width and height are -1 when they
+	 * aren't in the first bytes
+	 */
+	public static ImageHeader read(byte[] head, int length)
+	{
+		if (length >= 24 && u8(head, 0) == 0x89 && head[1] == 'P' && head[2] == 'N' && head[3] == 'G')
+		{
+			return new ImageHeader(Format.PNG, be32(head, 16), be32(head, 20));
+		}
+
+		if (length >= 10 && head[0] == 'G' && head[1] == 'I' && head[2] == 'F' && head[3] == '8')
+		{
+			return new ImageHeader(Format.GIF, le16(head, 6), le16(head, 8));
+		}
+
+		if (length >= 26 && head[0] == 'B' && head[1] == 'M')
+		{
+			return new ImageHeader(Format.BMP, Math.abs(le32(head, 18)), Math.abs(le32(head, 22)));
+		}
+
+		if (length >= 3 && u8(head, 0) == 0xFF && u8(head, 1) == 0xD8 && u8(head, 2) == 0xFF)
+		{
+			return ImageHeader.readJpeg(head, length);
+		}
+
+		if (length >= 12 && head[0] == 'R' && head[1] == 'I' && head[2] == 'F' && head[3] == 'F'
+				&& head[8] == 'W' && head[9] == 'E' && head[10] == 'B' && head[11] == 'P')
+		{
+			return ImageHeader.readWebp(head, length);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Walk the segments of a JPEG until the start of frame, which has the size
+	 */
+	protected static ImageHeader readJpeg(byte[] head, int length)
+	{
+		int position = 2;
+
+		while (position + 9 <= length)
+		{
+			if (u8(head, position) != 0xFF)
+			{
+				break;
+			}
+
+			int marker = u8(head, position + 1);
+
+			if (marker == 0xFF)
+			{
+				position++;
+				continue;
+			}
+
+			if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC)
+			{
+				return new ImageHeader(Format.JPEG, be16(head, position + 7), be16(head, position + 5));
+			}
+
+			position += 2 + be16(head, position + 2);
+		}
+		return new ImageHeader(Format.JPEG, -1, -1);
+	}
+
+	/**
+	 * Read the size of the lossy, lossless or extended chunk of a WebP
+	 */
+	protected static ImageHeader readWebp(byte[] head, int length)
+	{
+		if (length >= 30 && head[12] == 'V' && head[13] == 'P' && head[14] == '8')
+		{
+			switch (head[15])
+			{
+				case ' ':
+					return new ImageHeader(Format.WEBP, le16(head, 26) & 0x3FFF, le16(head, 28) & 0x3FFF);
+				case 'L':
+					int bits = le32(head, 21);
+					return new ImageHeader(Format.WEBP, (bits & 0x3FFF) + 1, ((bits >> 14) & 0x3FFF) + 1);
+				case 'X':
+					return new ImageHeader(Format.WEBP, le24(head, 24) + 1, le24(head, 27) + 1);
+				default:
+					break;
+			}
+		}
+		return new ImageHeader(Format.WEBP, -1, -1);
+	}
+
+	protected static int u8(byte[] bytes, int offset)
+	{
+		return bytes[offset] & 0xFF;
+	}
+
+	protected static int be16(byte[] bytes, int offset)
+	{
+		return (u8(bytes, offset) << 8) | u8(bytes, offset + 1);
+	}
+
+	protected static int be32(byte[] bytes, int offset)
+	{
+		return (be16(bytes, offset) << 16) | be16(bytes, offset + 2);
+	}
+
+	protected static int le16(byte[] bytes, int offset)
+	{
+		return u8(bytes, offset) | (u8(bytes, offset + 1) << 8);
+	}
+
+	protected static int le24(byte[] bytes, int offset)
+	{
+		return le16(bytes, offset) | (u8(bytes, offset + 2) << 16);
+	}
+
+	protected static int le32(byte[] bytes, int offset)
+	{
+		return le16(bytes, offset) | (le16(bytes, offset + 2) << 16);
+	}
+}
@@ -0,0 +1,252 @@
+package github.com.miguelfreelancer56577.azure_storage_image.image;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.apache.commons.io.FilenameUtils;
+import org.springframework.http.HttpStatus;
+
+import github.com.miguelfreelancer56577.azure_storage_image.exception.BlobException;
+
+/**
+ * Utility class used to decode, resize and encode the images.
+ *
+ * Big reductions are done in steps of half the size with bilinear interpolation,
+ * which is fast and avoids the aliasing of a single bilinear step.
+ *
+ * The size of an image is read from its header before decoding it, the images with more pixels
+ * than the limit are rejected because the decoded image takes 4 bytes per pixel of the heap.
+ *
+ * @author mangelt
+ *
+ */
+public class ImageResizer
+{
+
+	/**
+	 * Resize an image following the specification
+	 *
+	 * @param original: byte[] encoded image
+	 * @param spec: ImageSpec
+	 * @param maxPixels: long pixels of the biggest image decoded
+	 * @return byte[] encoded derivative
+	 * @throws IOException
+	 */
+	public static byte[] resize(byte[] original, ImageSpec spec, long maxPixels) throws IOException
+	{
+		return ImageResizer.encode(ImageResizer.resize(ImageResizer.decode(original, maxPixels), spec), spec.getFormat());
+	}
+
+	/**
+	 * Decode an image, its size is read first and the image isn't decoded when it has more pixels than the limit
+	 *
+	 * @param original: byte[] encoded image
+	 * @param maxPixels: long pixels of the biggest image decoded
+	 * @return BufferedImage
+	 * @throws IOException
+	 */
+	public static BufferedImage decode(byte[] original, long maxPixels) throws IOException
+	{
+		try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(original)))
+		{
+			Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+
+			if (readers == null || !readers.hasNext())
+			{
+				throw new BlobException(HttpStatus.UNSUPPORTED_MEDIA_TYPE, "The file is not an image that can be resized.");
+			}
+
+			ImageReader reader = readers.next();
+
+			try
+			{
+				reader.setInput(input, true, true);
+
+				long pixels = (long)reader.getWidth(0) * reader.getHeight(0);
+				if (pixels > maxPixels)
+				{
+					throw new BlobException(HttpStatus.PAYLOAD_TOO_LARGE,
+							"The image has " + pixels + " pixels, the limit is " + maxPixels + ".");
+				}
+
+				return reader.read(0);
+			}
+			finally
+			{
+				reader.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Encode an image in the format
+	 *
+	 * @param image: BufferedImage
+	 * @param format: String
+	 * @return byte[] encoded image
+	 * @throws IOException
+	 */
+	public static byte[] encode(BufferedImage image, String format) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		if (!ImageIO.write(image, format, out))
+		{
+			throw new BlobException(HttpStatus.BAD_REQUEST, "The format " + format + " is not supported.");
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Resize a decoded image following the specification, the transparency is kept when the format supports it
+	 *
+	 * @param source: BufferedImage
+	 * @param spec: ImageSpec
+	 * @return BufferedImage
+	 */
+	public static BufferedImage resize(BufferedImage source, ImageSpec spec)
+	{
+		boolean alpha = !ImageResizer.isJpeg(spec.getFormat()) && source.getColorModel().hasAlpha();
+		return ImageResizer.resize(source, spec, alpha);
+	}
+
+	/**
+	 * Check if the extension of a file is an image format that can be decoded
+	 *
+	 * @param fileName: String
+	 * @return boolean
+	 */
+	public static boolean isImage(String fileName)
+	{
+		String extension = FilenameUtils.getExtension(fileName).toLowerCase(Locale.ROOT);
+		return Arrays.asList(ImageIO.getReaderFileSuffixes()).contains(extension);
+	}
+
+	/**
+	 * Resize a decoded image following the specification
+	 *
+	 * @param source: BufferedImage
+	 * @param spec: ImageSpec
+	 * @param alpha: boolean keep the transparency
+	 * @return BufferedImage
+	 */
+	public static BufferedImage resize(BufferedImage source, ImageSpec spec, boolean alpha)
+	{
+		double sourceWidth = source.getWidth();
+		double sourceHeight = source.getHeight();
+
+		if (spec.getWidth() == 0 || spec.getHeight() == 0)
+		{
+			double scale = spec.getWidth() == 0 ? spec.getHeight() / sourceHeight : spec.getWidth() / sourceWidth;
+			return ImageResizer.scale(source, ImageResizer.side(sourceWidth * scale), ImageResizer.side(sourceHeight * scale), alpha);
+		}
+
+		switch (spec.getFit())
+		{
+			case FILL:
+				return ImageResizer.scale(source, spec.getWidth(), spec.getHeight(), alpha);
+
+			case COVER:
+				double cover = Math.max(spec.getWidth() / sourceWidth, spec.getHeight() / sourceHeight);
+				BufferedImage scaled = ImageResizer.scale(source, Math.max(spec.getWidth(), ImageResizer.side(sourceWidth * cover)),
+						Math.max(spec.getHeight(), ImageResizer.side(sourceHeight * cover)), alpha);
+				return scaled.getSubimage((scaled.getWidth() - spec.getWidth()) / 2, (scaled.getHeight() - spec.getHeight()) / 2,
+						spec.getWidth(), spec.getHeight());
+
+			default:
+				double contain = Math.min(spec.getWidth() / sourceWidth, spec.getHeight() / sourceHeight);
+				return ImageResizer.scale(source, ImageResizer.side(sourceWidth * contain), ImageResizer.side(sourceHeight * contain), alpha);
+		}
+	}
+
+	/**
+	 * Scale an image to the size, halving it while it's bigger than twice the size
+	 *
+	 * @param source: BufferedImage
+	 * @param width: int
+	 * @param height: int
+	 * @param alpha: boolean
+	 * @return BufferedImage
+	 */
+	public static BufferedImage scale(BufferedImage source, int width, int height, boolean alpha)
+	{
+		BufferedImage current = source;
+		int currentWidth = source.getWidth();
+		int currentHeight = source.getHeight();
+
+		do
+		{
+			currentWidth = currentWidth / 2 >= width ? currentWidth / 2 : width;
+			currentHeight = currentHeight / 2 >= height ? currentHeight / 2 : height;
+			current = ImageResizer.draw(current, currentWidth, currentHeight, alpha);
+		}
+		while (currentWidth != width || currentHeight != height);
+
+		return current;
+	}
+
+	/**
+	 * Draw an image into a new image of the size
+	 *
+	 * @param source: BufferedImage
+	 * @param width: int
+	 * @param height: int
+	 * @param alpha: boolean
+	 * @return BufferedImage
+	 */
+	protected static BufferedImage draw(BufferedImage source, int width, int height, boolean alpha)
+	{
+		BufferedImage target = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = target.createGraphics();
+
+		try
+		{
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
+			if (!alpha)
+			{
+				graphics.setColor(Color.WHITE);
+				graphics.fillRect(0, 0, width, height);
+			}
+			graphics.drawImage(source, 0, 0, width, height, null);
+		}
+		finally
+		{
+			graphics.dispose();
+		}
+		return target;
+	}
+
+	/**
+	 * Round the side of a scaled image, an image has at least one pixel
+	 *
+	 * @param side: double
+	 * @return int
+	 */
+	protected static int side(double side)
+	{
+		return Math.max(1, (int)Math.round(side));
+	}
+
+	/**
+	 * Check if the format is JPEG, which doesn't support transparency
+	 *
+	 * @param format: String
+	 * @return boolean
+	 */
+	protected static boolean isJpeg(String format)
+	{
+		return "jpg".equalsIgnoreCase(format) || "jpeg".equalsIgnoreCase(format);
+	}
+}
@@ -0,0 +1,104 @@
+package github.com.miguelfreelancer56577.azure_storage_image.image;
+
+import java.util.Locale;
+
+import org.apache.commons.io.FilenameUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.server.ServerRequest;
+
+import github.com.miguelfreelancer56577.azure_storage_image.exception.BlobException;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Size, fit and format of a derivative of an image
+ *
+ * @author mangelt
+ *
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ImageSpec
+{
+	protected int width;
+	protected int height;
+	protected Fit fit = Fit.CONTAIN;
+	protected String format;
+
+	/**
+	 * Ways to fit an image into the requested size
+	 *
+	 * CONTAIN: the whole image fits into the size keeping its aspect ratio
+	 * COVER: the image covers the size keeping its aspect ratio, the rest is cropped
+	 * FILL: the image is stretched to the size
+	 */
+	public enum Fit
+	{
+		CONTAIN, COVER, FILL
+	}
+
+	/**
+	 * Get the specification from the w, h, fit and format query params, the format of the
+	 * original image is used when it's not sent.
+	 *
+	 * @param rq: ServerRequest
+	 * @param fileName: String name of the original image
+	 * @param maxDimension: int biggest width or height allowed
+	 * @return ImageSpec
+	 */
+	public static ImageSpec from(ServerRequest rq, String fileName, int maxDimension)
+	{
+		try
+		{
+			ImageSpec spec = new ImageSpec(
+					rq.queryParam("w").map(Integer::parseInt).orElse(0),
+					rq.queryParam("h").map(Integer::parseInt).orElse(0),
+					rq.queryParam("fit").map(fit -> Fit.valueOf(fit.toUpperCase(Locale.ROOT))).orElse(Fit.CONTAIN),
+					rq.queryParam("format").orElse(FilenameUtils.getExtension(fileName)).toLowerCase(Locale.ROOT));
+
+			spec.validate(maxDimension);
+			return spec;
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new BlobException(HttpStatus.BAD_REQUEST, "The size, fit or format of the image is not valid.");
+		}
+	}
+
+	/**
+	 * Check the size is between 1 and maxDimension, at least one of the sides must be sent
+	 *
+	 * @param maxDimension: int
+	 */
+	public void validate(int maxDimension)
+	{
+		if (this.width < 0 || this.height < 0 || this.width > maxDimension || this.height > maxDimension
+				|| (this.width == 0 && this.height == 0))
+		{
+			throw new BlobException(HttpStatus.BAD_REQUEST, "The size of the image must be between 1 and " + maxDimension + ".");
+		}
+
+		if (this.format == null || this.format.isEmpty())
+		{
+			this.format = "jpg";
+		}
+	}
+
+	/**
+	 * Get the name of the blob file of the derivative, it changes when the original image changes
+	 *
+	 * @param prefix: String
+	 * @param name: String name of the original image
+	 * @param eTag: String ETag of the original image
+	 * @return String
+	 */
+	public String key(String prefix, String name, String eTag)
+	{
+		String version = eTag == null ? "0" : eTag.replaceAll("[^A-Za-z0-9]", "");
+
+		return String.format("%s%s/%dx%d-%s-%s.%s", prefix, name, this.width, this.height,
+				this.fit.name().toLowerCase(Locale.ROOT), version, this.format);
+	}
+}
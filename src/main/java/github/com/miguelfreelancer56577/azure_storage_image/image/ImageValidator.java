@@ -0,0 +1,292 @@
+package github.com.miguelfreelancer56577.azure_storage_image.image;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import github.com.miguelfreelancer56577.azure_storage_image.config.BlobProperties;
+import github.com.miguelfreelancer56577.azure_storage_image.exception.BlobException;
+import github.com.miguelfreelancer56577.azure_storage_image.metrics.BlobMetrics;
+import github.com.miguelfreelancer56577.azure_storage_image.store.BlobInfo;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+
+/**
+ * Class used to validate the uploaded images while they are received.
+ *
+ * The first blob.validation.sniff-bytes of the file are held back until the real format is detected
+ * from the magic bytes and the size is read from the header, so an upload which breaks the policies fails
+ * before any block is sent to azure. The length of the file is checked as the bytes arrive.
+ *
+ * The files with an image extension are validated, the others are only validated when images-only is set.
+ * The files of the FILE upload mode get the same checks from the first bytes of their temporal file.
+ *
+ * The buffers held back are released when the upload fails or is cancelled before they are sent.
+ *
+ * @author mangelt
+ *
+ */
+@Slf4j
+@Component
+public class ImageValidator
+{
+	@Autowired
+	protected BlobProperties properties;
+
+	@Autowired
+	protected BlobMetrics metrics;
+
+	/**
+	 * Validate the content of an uploaded file while it's streamed
+	 *
+	 * @param fileName: String
+	 * @param content: Flux<DataBuffer>
+	 * @return Flux<DataBuffer> the same content, it fails with a BlobException when a policy is broken
+	 */
+	public Flux<DataBuffer> validate(String fileName, Flux<DataBuffer> content)
+	{
+		BlobProperties.Validation validation = this.properties.getValidation();
+		ImageHeader.Format expected = ImageHeader.Format.fromExtension(FilenameUtils.getExtension(fileName));
+		boolean sniff = expected != null || validation.isImagesOnly();
+
+		return Flux.defer(() ->
+		{
+			AtomicLong received = new AtomicLong();
+
+			Flux<DataBuffer> counted = content.doOnNext(buffer ->
+			{
+				if (validation.getMaxBytes() > 0 && received.addAndGet(buffer.readableByteCount()) > validation.getMaxBytes())
+				{
+					DataBufferUtils.release(buffer);
+					throw new BlobException(HttpStatus.PAYLOAD_TOO_LARGE,
+							"The file is bigger than " + validation.getMaxBytes() + " bytes.");
+				}
+			});
+
+			if (!sniff)
+			{
+				return counted;
+			}
+
+			List<DataBuffer> held = new ArrayList<>();
+			AtomicLong heldBytes = new AtomicLong();
+			AtomicBoolean checked = new AtomicBoolean();
+
+			return counted.concatMapIterable(buffer ->
+					{
+						if (checked.get())
+						{
+							return Collections.singletonList(buffer);
+						}
+
+						synchronized (held)
+						{
+							held.add(buffer);
+							if (heldBytes.addAndGet(buffer.readableByteCount()) < validation.getSniffBytes())
+							{
+								return Collections.<DataBuffer>emptyList();
+							}
+							return this.release(fileName, expected, held, checked);
+						}
+					})
+					.concatWith(Flux.defer(() ->
+					{
+						synchronized (held)
+						{
+							return Flux.fromIterable(checked.get() || held.isEmpty()
+									? Collections.<DataBuffer>emptyList()
+									: this.release(fileName, expected, held, checked));
+						}
+					}))
+					.doFinally(signal ->
+					{
+						synchronized (held)
+						{
+							held.forEach(DataBufferUtils::release);
+							held.clear();
+						}
+					});
+		});
+	}
+
+	/**
+	 * Validate the content of a file uploaded in the FILE mode, from the first bytes of its temporal file,
+	 * its time is recorded by the caller with the other checks of the file
+	 *
+	 * @param fileName: String
+	 * @param file: File
+	 * @throws BlobException when a policy is broken
+	 */
+	public void validate(String fileName, File file)
+	{
+		BlobProperties.Validation validation = this.properties.getValidation();
+		ImageHeader.Format expected = ImageHeader.Format.fromExtension(FilenameUtils.getExtension(fileName));
+
+		if (validation.getMaxBytes() > 0 && file.length() > validation.getMaxBytes())
+		{
+			throw new BlobException(HttpStatus.PAYLOAD_TOO_LARGE, "The file is bigger than " + validation.getMaxBytes() + " bytes.");
+		}
+
+		if (expected == null && !validation.isImagesOnly())
+		{
+			return;
+		}
+
+		try (InputStream in = Files.newInputStream(file.toPath()))
+		{
+			byte[] head = new byte[(int)Math.min(validation.getSniffBytes(), file.length())];
+			int length = IOUtils.read(in, head);
+			this.check(fileName, expected, head, length);
+		}
+		catch (IOException e)
+		{
+			throw new BlobException(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage());
+		}
+	}
+
+	/**
+	 * Check the buffers held back and hand them over to be sent, they are released when the check fails
+	 *
+	 * @param fileName: String
+	 * @param expected: Format of the extension or null
+	 * @param held: List<DataBuffer> first bytes of the file
+	 * @param checked: AtomicBoolean set once the check passes
+	 * @return List<DataBuffer> the buffers held back
+	 */
+	protected List<DataBuffer> release(String fileName, ImageHeader.Format expected, List<DataBuffer> held, AtomicBoolean checked)
+	{
+		long start = System.nanoTime();
+		try
+		{
+			this.check(fileName, expected, held);
+		}
+		finally
+		{
+			this.metrics.stage("validation", start);
+		}
+
+		checked.set(true);
+		List<DataBuffer> buffers = new ArrayList<>(held);
+		held.clear();
+		return buffers;
+	}
+
+	/**
+	 * Check if content already stored, validated when it was uploaded, can be linked under a name: its format
+	 * must match the extension of the name and be allowed, and it can't be longer than max-bytes
+	 *
+	 * @param fileName: String
+	 * @param content: BlobInfo
+	 * @return boolean
+	 */
+	public boolean accepts(String fileName, BlobInfo content)
+	{
+		BlobProperties.Validation validation = this.properties.getValidation();
+		ImageHeader.Format expected = ImageHeader.Format.fromExtension(FilenameUtils.getExtension(fileName));
+
+		if (validation.getMaxBytes() > 0 && content.getLength() > validation.getMaxBytes())
+		{
+			return false;
+		}
+
+		if (expected == null && !validation.isImagesOnly())
+		{
+			return true;
+		}
+
+		for (ImageHeader.Format format : ImageHeader.Format.values())
+		{
+			if (format.getContentType().equals(content.getContentType()))
+			{
+				return (expected == null || expected == format)
+						&& validation.getFormats().contains(format.name().toLowerCase(Locale.ROOT));
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Check the format and size of the image against the policies
+	 *
+	 * @param fileName: String
+	 * @param expected: Format of the extension or null
+	 * @param buffers: List<DataBuffer> first bytes of the file
+	 */
+	protected void check(String fileName, ImageHeader.Format expected, List<DataBuffer> buffers)
+	{
+		byte[] head = new byte[buffers.stream().mapToInt(DataBuffer::readableByteCount).sum()];
+		int length = 0;
+
+		for (DataBuffer buffer : buffers)
+		{
+			int count = buffer.readableByteCount();
+			buffer.asByteBuffer().get(head, length, count);
+			length += count;
+		}
+
+		this.check(fileName, expected, head, length);
+	}
+
+	/**
+	 * Check the format and size of the image read from its first bytes against the policies
+	 *
+	 * @param fileName: String
+	 * @param expected: Format of the extension or null
+	 * @param head: byte[] first bytes of the file
+	 * @param length: int number of bytes of head read
+	 */
+	protected void check(String fileName, ImageHeader.Format expected, byte[] head, int length)
+	{
+		BlobProperties.Validation validation = this.properties.getValidation();
+		ImageHeader header = ImageHeader.read(head, length);
+		String error = null;
+		HttpStatus status = HttpStatus.UNSUPPORTED_MEDIA_TYPE;
+
+		if (header == null)
+		{
+			error = "The file is not an image.";
+		}
+		else if (!validation.getFormats().contains(header.getFormat().name().toLowerCase(Locale.ROOT)))
+		{
+			error = "The format " + header.getFormat() + " is not allowed.";
+		}
+		else if (expected != null && expected != header.getFormat())
+		{
+			error = "The extension of the file doesn't match its format " + header.getFormat() + ".";
+			status = HttpStatus.BAD_REQUEST;
+		}
+		else if (header.getWidth() < 1 || header.getHeight() < 1)
+		{
+			error = "The size of the image couldn't be read.";
+			status = HttpStatus.BAD_REQUEST;
+		}
+		else if (header.getWidth() > validation.getMaxWidth() || header.getHeight() > validation.getMaxHeight())
+		{
+			error = "The image is bigger than " + validation.getMaxWidth() + "x" + validation.getMaxHeight() + ".";
+			status = HttpStatus.BAD_REQUEST;
+		}
+
+		if (error != null)
+		{
+			log.info("{} REJECTED: {}", fileName, error);
+			throw new BlobException(status, error);
+		}
+
+		log.info("{} IS A {} OF {}x{}", fileName, header.getFormat(), header.getWidth(), header.getHeight());
+	}
+}
@@ -0,0 +1,159 @@
+package github.com.miguelfreelancer56577.azure_storage_image.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Meters of the uploads and downloads, exported by the prometheus endpoint of the actuator.
+ *
+ * blob.upload.stage: time of each stage of an upload (multipart, temp-file, validation, upload)
+ * blob.bytes.in and blob.bytes.out: bytes received from the clients and sent to them
+ * blob.requests.in.flight: requests being served, by operation
+ * blob.download.stale: downloads served from the cache without validating them while azure is unavailable
+ *
+ * The calls against azure are recorded by StorageResource in the blob.azure.calls timer,
+ * their retries, hedges and circuit by AzureResilience.
+ *
+ * The meters are created once and reused, so recording a value is a few atomic operations.
+ *
+ * @author mangelt
+ *
+ */
+@Component
+public class BlobMetrics
+{
+	protected final MeterRegistry registry;
+
+	protected final Counter bytesIn;
+
+	protected final Counter bytesOut;
+
+	protected final Counter stale;
+
+	protected final Map<String, Timer> stages = new ConcurrentHashMap<>();
+
+	protected final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+	public BlobMetrics(MeterRegistry registry)
+	{
+		this.registry = registry;
+		this.bytesIn = Counter.builder("blob.bytes.in")
+				.description("Bytes of the files uploaded by the clients")
+				.baseUnit("bytes")
+				.register(registry);
+		this.bytesOut = Counter.builder("blob.bytes.out")
+				.description("Bytes of the blob files sent to the clients")
+				.baseUnit("bytes")
+				.register(registry);
+		this.stale = Counter.builder("blob.download.stale")
+				.description("Downloads served from the cache without validating them while azure is unavailable")
+				.register(registry);
+	}
+
+	/**
+	 * Record the time of a stage of an upload, from the subscription until it completes, fails or is cancelled
+	 *
+	 * @param stage: String
+	 * @param task: Mono<T>
+	 * @return Mono<T>
+	 */
+	public <T> Mono<T> stage(String stage, Mono<T> task)
+	{
+		Timer timer = this.timer(stage);
+
+		return Mono.defer(() ->
+		{
+			long start = System.nanoTime();
+			return task.doFinally(signal -> timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+		});
+	}
+
+	/**
+	 * Record the time of a stage of an upload which started at start
+	 *
+	 * @param stage: String
+	 * @param start: long time when the stage started, in nanoseconds
+	 */
+	public void stage(String stage, long start)
+	{
+		this.timer(stage).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Count the bytes received from a client while they are read
+	 *
+	 * @param content: Flux<DataBuffer>
+	 * @return Flux<DataBuffer>
+	 */
+	public Flux<DataBuffer> countIn(Flux<DataBuffer> content)
+	{
+		return content.doOnNext(buffer -> this.bytesIn.increment(buffer.readableByteCount()));
+	}
+
+	/**
+	 * Count the bytes received from a client
+	 *
+	 * @param bytes: long
+	 */
+	public void countIn(long bytes)
+	{
+		this.bytesIn.increment(bytes);
+	}
+
+	/**
+	 * Count the bytes sent to a client while they are written
+	 *
+	 * @param content: Flux<DataBuffer>
+	 * @return Flux<DataBuffer>
+	 */
+	public Flux<DataBuffer> countOut(Flux<DataBuffer> content)
+	{
+		return content.doOnNext(buffer -> this.bytesOut.increment(buffer.readableByteCount()));
+	}
+
+	/**
+	 * Count a download served from the cache without validating it
+	 */
+	public void stale()
+	{
+		this.stale.increment();
+	}
+
+	/**
+	 * Get the number of requests of an operation being served
+	 *
+	 * @param operation: String
+	 * @return AtomicInteger
+	 */
+	public AtomicInteger inFlight(String operation)
+	{
+		return this.inFlight.computeIfAbsent(operation,
+				key -> this.registry.gauge("blob.requests.in.flight", Tags.of("operation", key), new AtomicInteger()));
+	}
+
+	/**
+	 * Get the timer of a stage of an upload
+	 *
+	 * @param stage: String
+	 * @return Timer
+	 */
+	protected Timer timer(String stage)
+	{
+		return this.stages.computeIfAbsent(stage, key -> Timer.builder("blob.upload.stage")
+				.description("Time taken by each stage of an upload")
+				.tag("stage", key)
+				.register(this.registry));
+	}
+}
@@ -0,0 +1,75 @@
+package github.com.miguelfreelancer56577.azure_storage_image.metrics;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+import github.com.miguelfreelancer56577.azure_storage_image.router.BlobRouter;
+import reactor.core.publisher.Mono;
+
+/**
+ * Filter used to count the requests of the blob api being served, by operation.
+ *
+ * It's a WebFilter and not a filter of the routes because the bodies of the downloads are written
+ * after the handler returns its ServerResponse, the request is in flight until the body is sent.
+ *
+ * @author mangelt
+ *
+ */
+@Component
+public class InFlightRequestFilter implements WebFilter
+{
+	/**
+	 * First segment of the paths of the routes, any other path is counted as other
+	 */
+	protected static final Set<String> OPERATIONS = new HashSet<>(Arrays.asList("upload", "download", "list", "image", "archive"));
+
+	@Autowired
+	protected BlobMetrics metrics;
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain)
+	{
+		String path = exchange.getRequest().getPath().pathWithinApplication().value();
+
+		if (!path.startsWith(BlobRouter.API + "/"))
+		{
+			return chain.filter(exchange);
+		}
+
+		AtomicInteger inFlight = this.metrics.inFlight(InFlightRequestFilter.operation(path));
+
+		return Mono.defer(() ->
+		{
+			inFlight.incrementAndGet();
+			return chain.filter(exchange)
+					.doFinally(signal -> inFlight.decrementAndGet());
+		});
+	}
+
+	/**
+	 * Get the operation of a path of the blob api
+	 *
+	 * @param path: String
+	 * @return String
+	 */
+	protected static String operation(String path)
+	{
+		String operation = path.substring(BlobRouter.API.length() + 1);
+		int slash = operation.indexOf('/');
+
+		if (slash >= 0)
+		{
+			operation = operation.substring(0, slash);
+		}
+
+		return InFlightRequestFilter.OPERATIONS.contains(operation) ? operation : "other";
+	}
+}
@@ -8,7 +8,9 @@ import org.springframework.web.reactive.function.server.RouterFunction;
 import org.springframework.web.reactive.function.server.RouterFunctions;
 import org.springframework.web.reactive.function.server.ServerResponse;
 
+import github.com.miguelfreelancer56577.azure_storage_image.handler.ArchiveHandler;
 import github.com.miguelfreelancer56577.azure_storage_image.handler.BlobHandler;
+import github.com.miguelfreelancer56577.azure_storage_image.handler.ImageHandler;
 
 /**
  * class used to route each petition, working with the blob storage
@@ -23,13 +25,23 @@ public class BlobRouter
 	public static String API = "/blob-management";
 
 	@Bean
-	public RouterFunction<ServerResponse> blobItem(BlobHandler BlobHandler)
+	public RouterFunction<ServerResponse> blobItem(BlobHandler BlobHandler, ImageHandler ImageHandler, ArchiveHandler ArchiveHandler)
 	{
 		return RouterFunctions
 				.route(RequestPredicates.POST(API.concat("/upload/{filename}")).and(RequestPredicates.accept(MediaType.MULTIPART_FORM_DATA)),
 						BlobHandler::uploadFile)
+				.andRoute(RequestPredicates.POST(API.concat("/upload")).and(RequestPredicates.accept(MediaType.MULTIPART_FORM_DATA)),
+						BlobHandler::uploadBatch)
 				.andRoute(RequestPredicates.GET(API.concat("/download/{filename}")),
-						BlobHandler::downloadFile);
+						BlobHandler::downloadFile)
+				.andRoute(RequestPredicates.GET(API.concat("/list")),
+						BlobHandler::listFiles)
+				.andRoute(RequestPredicates.GET(API.concat("/image/{filename}")),
+						ImageHandler::resizeImage)
+				.andRoute(RequestPredicates.GET(API.concat("/archive")),
+						ArchiveHandler::downloadArchive)
+				.andRoute(RequestPredicates.POST(API.concat("/archive")).and(RequestPredicates.contentType(MediaType.APPLICATION_JSON)),
+						ArchiveHandler::downloadArchiveOf);
 
 	}
 
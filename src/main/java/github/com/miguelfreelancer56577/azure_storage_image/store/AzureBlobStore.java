@@ -0,0 +1,314 @@
+package github.com.miguelfreelancer56577.azure_storage_image.store;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+
+import com.microsoft.azure.storage.ResultSegment;
+import com.microsoft.azure.storage.blob.CloudBlob;
+import com.microsoft.azure.storage.blob.CloudBlobDirectory;
+import com.microsoft.azure.storage.blob.ListBlobItem;
+
+import github.com.miguelfreelancer56577.azure_storage_image.blob.StorageResource;
+import github.com.miguelfreelancer56577.azure_storage_image.blob.StorageResourcePool;
+import github.com.miguelfreelancer56577.azure_storage_image.config.BlobProperties;
+import github.com.miguelfreelancer56577.azure_storage_image.exception.BlobException;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * BlobStore backed by an azure container through StorageResource.
+ *
+ * The azure-storage SDK only offers blocking calls, so each call runs on the bounded blob scheduler
+ * and the handlers only see the Mono and Flux returned here.
+ *
+ * @author mangelt
+ *
+ */
+@Slf4j
+public class AzureBlobStore implements BlobStore
+{
+
+	protected final StorageResourcePool resources;
+
+	protected final Scheduler scheduler;
+
+	protected final ExecutorService blockUploadExecutor;
+
+	protected final BlobProperties properties;
+
+	protected final DataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+	protected final StorageResource listing;
+
+	public AzureBlobStore(StorageResourcePool resources, Scheduler scheduler, ExecutorService blockUploadExecutor,
+			BlobProperties properties)
+	{
+		this.resources = resources;
+		this.scheduler = scheduler;
+		this.blockUploadExecutor = blockUploadExecutor;
+		this.properties = properties;
+		this.listing = new StorageResource(resources.getCloudBlobContainer());
+		this.listing.setResilience(resources.getResilience());
+	}
+
+	@Override
+	public Mono<BlobInfo> stat(String name)
+	{
+		return Mono.fromCallable(() ->
+		{
+			StorageResource sr = this.resource(name);
+			return sr.fetchAttributes() ? AzureBlobStore.toInfo(sr.getCloudBlockBlob()) : null;
+		})
+				.subscribeOn(this.scheduler);
+	}
+
+	@Override
+	public Mono<Boolean> exists(String name)
+	{
+		return this.stat(name)
+				.hasElement();
+	}
+
+	@Override
+	public Flux<DataBuffer> get(BlobInfo blob)
+	{
+		return this.getRange(blob, 0, blob.getLength());
+	}
+
+	@Override
+	public Flux<DataBuffer> getRange(BlobInfo blob, long offset, long count)
+	{
+		return Flux.defer(() ->
+		{
+			BlobProperties.Download download = this.properties.getDownload();
+			int parallelism = blob.getLength() > download.getParallelThreshold() ? download.getParallelism() : 1;
+			StorageResource sr = this.resource(blob.getName());
+
+			Flux<DataBuffer> content = sr.getDataBuffers(this.bufferFactory, offset, count, download.getRangeChunkSize(),
+					download.getChunkSize(), parallelism, this.scheduler, blob.getETag())
+					.doOnComplete(() -> log.info("READ OF {} MADE {} RANGED REQUESTS", blob.getName(),
+							(count + download.getRangeChunkSize() - 1) / download.getRangeChunkSize()));
+
+			if (this.properties.getIntegrity().isVerifyDownloads() && blob.getContentMd5() != null
+					&& offset == 0 && count == blob.getLength())
+			{
+				return StorageResource.verifyMd5(content, blob.getContentMd5());
+			}
+			return content;
+		});
+	}
+
+	@Override
+	public Mono<BlobInfo> put(String name, Flux<DataBuffer> content)
+	{
+		BlobProperties.Upload upload = this.properties.getUpload();
+
+		return Mono.defer(() -> this.resources.writer(name)
+				.uploadFromDataBuffers(content, upload.getBlockSize(), upload.getMaxInFlightBlocks(), this.scheduler))
+				.then(this.stat(name));
+	}
+
+	@Override
+	public Mono<BlobInfo> put(String name, File file)
+	{
+		return Mono.fromCallable(() ->
+		{
+			this.resources.writer(name)
+					.uploadFromFile(file, this.properties.getUpload().getBlockSize(), this.blockUploadExecutor);
+			return file;
+		})
+				.subscribeOn(this.scheduler)
+				.then(this.stat(name));
+	}
+
+	@Override
+	public Mono<Boolean> delete(String name)
+	{
+		return Mono.fromCallable(() -> this.resource(name).deleteBlob())
+				.subscribeOn(this.scheduler);
+	}
+
+	/**
+	 * The pages are listed one after another through the retries and the circuit of the listing resource
+	 */
+	@Override
+	public Flux<BlobInfo> list(String prefix)
+	{
+		return this.page(prefix, null)
+				.expand(page -> page.marker != null ? this.page(prefix, page.marker) : Mono.empty())
+				.concatMapIterable(page -> page.blobs, 2);
+	}
+
+	/**
+	 * List a flat page of up to blob.store.list-page-size blob files with all their properties
+	 *
+	 * @param prefix: String
+	 * @param marker: String
+	 * @return Mono<Page>
+	 */
+	protected Mono<Page> page(String prefix, String marker)
+	{
+		return Mono.fromCallable(() ->
+		{
+			ResultSegment<ListBlobItem> result = this.listing.listBlobsSegmented(prefix, true,
+					this.properties.getStore().getListPageSize(), marker);
+			List<BlobInfo> blobs = new ArrayList<>(result.getLength());
+
+			for (ListBlobItem item : result.getResults())
+			{
+				if (item instanceof CloudBlob)
+				{
+					blobs.add(AzureBlobStore.toInfo((CloudBlob)item));
+				}
+			}
+
+			String next = result.getContinuationToken() == null ? null : result.getContinuationToken().getNextMarker();
+			return new Page(blobs, next);
+		})
+				.subscribeOn(this.scheduler);
+	}
+
+	/**
+	 * The segments are listed one after another, the next segment is fetched while the
+	 * items of the current one are written to the client.
+	 *
+	 * Azure only groups the blob files by the directory delimiter of the client, other delimiters are rejected.
+	 */
+	@Override
+	public Flux<ListItem> list(String prefix, String delimiter, int maxResults, String continuation)
+	{
+		boolean flat = delimiter == null;
+
+		if (!flat && !delimiter.equals(this.resources.getCloudBlobContainer().getServiceClient().getDirectoryDelimiter()))
+		{
+			throw new BlobException(HttpStatus.BAD_REQUEST, "The delimiter must be "
+					+ this.resources.getCloudBlobContainer().getServiceClient().getDirectoryDelimiter());
+		}
+
+		return this.segment(prefix, flat, maxResults, continuation)
+				.expand(segment -> segment.remaining > 0 && segment.marker != null
+						? this.segment(prefix, flat, segment.remaining, segment.marker)
+						: Mono.empty())
+				.concatMapIterable(segment -> segment.items, 2);
+	}
+
+	/**
+	 * List a segment of up to blob.store.list-page-size items, a continuation item is added when
+	 * there are more items but no more are requested
+	 *
+	 * @param prefix: String
+	 * @param flat: boolean
+	 * @param remaining: int items requested by the client not listed yet
+	 * @param marker: String
+	 * @return Mono<Segment>
+	 */
+	protected Mono<Segment> segment(String prefix, boolean flat, int remaining, String marker)
+	{
+		int size = Math.min(remaining, this.properties.getStore().getListPageSize());
+
+		return Mono.fromCallable(() ->
+		{
+			ResultSegment<ListBlobItem> result = this.listing.listBlobsSegmented(prefix, flat, size, marker);
+			List<ListItem> items = new ArrayList<>(result.getLength());
+
+			for (ListBlobItem item : result.getResults())
+			{
+				if (item instanceof CloudBlob)
+				{
+					items.add(ListItem.of(AzureBlobStore.toInfo((CloudBlob)item)));
+				}
+				else if (item instanceof CloudBlobDirectory)
+				{
+					items.add(ListItem.builder().prefix(((CloudBlobDirectory)item).getPrefix()).build());
+				}
+			}
+
+			String next = result.getContinuationToken() == null ? null : result.getContinuationToken().getNextMarker();
+			int left = remaining - items.size();
+
+			if (next != null && left <= 0)
+			{
+				items.add(ListItem.builder().continuation(next).build());
+			}
+			return new Segment(items, next, left);
+		})
+				.subscribeOn(this.scheduler);
+	}
+
+	/**
+	 * Items of a segment of a listing and the marker of the next segment
+	 */
+	protected static class Segment
+	{
+		protected final List<ListItem> items;
+
+		protected final String marker;
+
+		protected final int remaining;
+
+		protected Segment(List<ListItem> items, String marker, int remaining)
+		{
+			this.items = items;
+			this.marker = marker;
+			this.remaining = remaining;
+		}
+	}
+
+	/**
+	 * Blob files of a page of a flat listing and the marker of the next page
+	 */
+	protected static class Page
+	{
+		protected final List<BlobInfo> blobs;
+
+		protected final String marker;
+
+		protected Page(List<BlobInfo> blobs, String marker)
+		{
+			this.blobs = blobs;
+			this.marker = marker;
+		}
+	}
+
+	/**
+	 * Get the shared StorageResource used to run the operations against a blob file
+	 *
+	 * @param name: String
+	 * @return StorageResource
+	 */
+	protected StorageResource resource(String name)
+	{
+		return this.resources.get(name);
+	}
+
+	/**
+	 * Transform the properties of an azure blob file into a BlobInfo, the properties are read once
+	 * because a shared blob file replaces them with each call.
+	 *
+	 * @param blob: CloudBlob
+	 * @return BlobInfo
+	 */
+	protected static BlobInfo toInfo(CloudBlob blob)
+	{
+		com.microsoft.azure.storage.blob.BlobProperties attributes = blob.getProperties();
+
+		return BlobInfo.builder()
+				.name(blob.getName())
+				.length(attributes.getLength())
+				.eTag(attributes.getEtag())
+				.lastModified(attributes.getLastModified().getTime())
+				.contentType(attributes.getContentType())
+				.contentMd5(attributes.getContentMD5())
+				.cacheControl(attributes.getCacheControl())
+				.build();
+	}
+}
@@ -0,0 +1,27 @@
+package github.com.miguelfreelancer56577.azure_storage_image.store;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Properties of a blob file returned by the BlobStore
+ *
+ * @author mangelt
+ *
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class BlobInfo
+{
+	protected String name;
+	protected long length;
+	protected String eTag;
+	protected long lastModified;
+	protected String contentType;
+	protected String contentMd5;
+	protected String cacheControl;
+}
@@ -0,0 +1,116 @@
+package github.com.miguelfreelancer56577.azure_storage_image.store;
+
+import java.io.File;
+import java.util.function.Predicate;
+
+import org.springframework.core.io.buffer.DataBuffer;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non blocking operations against the storage of the blob files, used by the handlers
+ *
+ * @author mangelt
+ *
+ */
+public interface BlobStore
+{
+
+	/**
+	 * Get the properties of a blob file
+	 *
+	 * @param name: String
+	 * @return Mono<BlobInfo> empty when the blob file doesn't exist
+	 */
+	Mono<BlobInfo> stat(String name);
+
+	/**
+	 * Check if the blob file exists
+	 *
+	 * @param name: String
+	 * @return Mono<Boolean>
+	 */
+	Mono<Boolean> exists(String name);
+
+	/**
+	 * Get the whole content of the version of the blob file returned by stat
+	 *
+	 * @param blob: BlobInfo
+	 * @return Flux<DataBuffer>
+	 */
+	Flux<DataBuffer> get(BlobInfo blob);
+
+	/**
+	 * Get count bytes from offset of the version of the blob file returned by stat
+	 *
+	 * @param blob: BlobInfo
+	 * @param offset: long
+	 * @param count: long
+	 * @return Flux<DataBuffer>
+	 */
+	Flux<DataBuffer> getRange(BlobInfo blob, long offset, long count);
+
+	/**
+	 * Write the blob file from a stream of buffers
+	 *
+	 * @param name: String
+	 * @param content: Flux<DataBuffer>
+	 * @return Mono<BlobInfo> properties of the new blob file
+	 */
+	Mono<BlobInfo> put(String name, Flux<DataBuffer> content);
+
+	/**
+	 * Write the blob file from a File
+	 *
+	 * @param name: String
+	 * @param file: File
+	 * @return Mono<BlobInfo> properties of the new blob file
+	 */
+	Mono<BlobInfo> put(String name, File file);
+
+	/**
+	 * Write the blob file with the content of another blob file with the same SHA-256 digest,
+	 * only supported by the content addressed BlobStore
+	 *
+	 * @param name: String
+	 * @param sha256: String hex digest of the content
+	 * @param accept: Predicate<BlobInfo> checked against the properties of the content before it's linked
+	 * @return Mono<BlobInfo> empty when there is no content with the digest or it isn't accepted
+	 */
+	default Mono<BlobInfo> link(String name, String sha256, Predicate<BlobInfo> accept)
+	{
+		return Mono.empty();
+	}
+
+	/**
+	 * Delete the blob file
+	 *
+	 * @param name: String
+	 * @return Mono<Boolean> false when the blob file doesn't exist
+	 */
+	Mono<Boolean> delete(String name);
+
+	/**
+	 * List the blob files whose name starts with the prefix
+	 *
+	 * @param prefix: String
+	 * @return Flux<BlobInfo>
+	 */
+	Flux<BlobInfo> list(String prefix);
+
+	/**
+	 * List a page of the blob files whose name starts with the prefix, in order
+	 *
+	 * When a delimiter is sent the blob files under it are grouped as one directory item, and when there are
+	 * more than maxResults items the last item has the continuation used to get the next page.
+	 *
+	 * @param prefix: String
+	 * @param delimiter: String null for a flat listing
+	 * @param maxResults: int
+	 * @param continuation: String continuation of the previous page, null for the first page
+	 * @return Flux<ListItem>
+	 */
+	Flux<ListItem> list(String prefix, String delimiter, int maxResults, String continuation);
+
+}
@@ -0,0 +1,183 @@
+package github.com.miguelfreelancer56577.azure_storage_image.store;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * BlobStore which shares a single read of a blob file among the readers of the same version at the same time.
+ *
+ * The whole reads are keyed by the name and the ETag of the blob file, the first reader starts the read and
+ * the readers which arrive while it's in progress attach to it, they receive the chunks already read from
+ * a replay of byte arrays and then the next chunks as they arrive. The read is cancelled when every reader
+ * cancelled it, and it's forgotten once it ends, so the readers which arrive later start their own read.
+ *
+ * Only the blob files up to maxReplayBytes are shared, the replay keeps the whole blob file until the read ends.
+ * The bigger blob files and the ranges are read on their own.
+ *
+ * @author mangelt
+ *
+ */
+public class CoalescingBlobStore implements BlobStore
+{
+
+	protected final BlobStore delegate;
+
+	protected final long maxReplayBytes;
+
+	protected final DataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+	/**
+	 * Reads in progress, keyed by name and ETag
+	 */
+	protected final Map<String, Flux<byte[]>> flights = new ConcurrentHashMap<>();
+
+	protected final Counter started;
+
+	protected final Counter joined;
+
+	public CoalescingBlobStore(BlobStore delegate, long maxReplayBytes, MeterRegistry registry)
+	{
+		this.delegate = delegate;
+		this.maxReplayBytes = maxReplayBytes;
+		this.started = Counter.builder("blob.download.coalesced")
+				.description("Whole reads of blob files, by reads started against the storage and readers attached to them")
+				.tag("result", "started")
+				.register(registry);
+		this.joined = Counter.builder("blob.download.coalesced")
+				.description("Whole reads of blob files, by reads started against the storage and readers attached to them")
+				.tag("result", "joined")
+				.register(registry);
+	}
+
+	@Override
+	public Mono<BlobInfo> stat(String name)
+	{
+		return this.delegate.stat(name);
+	}
+
+	@Override
+	public Mono<Boolean> exists(String name)
+	{
+		return this.delegate.exists(name);
+	}
+
+	@Override
+	public Flux<DataBuffer> get(BlobInfo blob)
+	{
+		return this.getRange(blob, 0, blob.getLength());
+	}
+
+	@Override
+	public Flux<DataBuffer> getRange(BlobInfo blob, long offset, long count)
+	{
+		if (offset != 0 || count != blob.getLength() || count > this.maxReplayBytes || blob.getETag() == null)
+		{
+			return this.delegate.getRange(blob, offset, count);
+		}
+
+		return Flux.defer(() -> this.flight(blob))
+				.map(this.bufferFactory::wrap);
+	}
+
+	/**
+	 * Get the read in progress of the version of the blob file or start a new one
+	 *
+	 * @param blob: BlobInfo
+	 * @return Flux<byte[]>
+	 */
+	protected Flux<byte[]> flight(BlobInfo blob)
+	{
+		String key = blob.getName() + '\n' + blob.getETag();
+		Flux<byte[]> flight = this.flights.get(key);
+
+		if (flight != null)
+		{
+			this.joined.increment();
+			return flight;
+		}
+
+		AtomicReference<Flux<byte[]>> self = new AtomicReference<>();
+		Flux<byte[]> started = this.delegate.get(blob)
+				.map(CoalescingBlobStore::toBytes)
+				// forgotten before the readers get the end of the read, so a reader which arrives after it starts a new one
+				.doOnTerminate(() -> this.flights.remove(key, self.get()))
+				.doOnCancel(() -> this.flights.remove(key, self.get()))
+				.replay()
+				.refCount();
+		self.set(started);
+
+		flight = this.flights.putIfAbsent(key, started);
+
+		if (flight != null)
+		{
+			this.joined.increment();
+			return flight;
+		}
+
+		this.started.increment();
+		return started;
+	}
+
+	@Override
+	public Mono<BlobInfo> put(String name, Flux<DataBuffer> content)
+	{
+		return this.delegate.put(name, content);
+	}
+
+	@Override
+	public Mono<BlobInfo> put(String name, File file)
+	{
+		return this.delegate.put(name, file);
+	}
+
+	@Override
+	public Mono<BlobInfo> link(String name, String sha256, Predicate<BlobInfo> accept)
+	{
+		return this.delegate.link(name, sha256, accept);
+	}
+
+	@Override
+	public Mono<Boolean> delete(String name)
+	{
+		return this.delegate.delete(name);
+	}
+
+	@Override
+	public Flux<BlobInfo> list(String prefix)
+	{
+		return this.delegate.list(prefix);
+	}
+
+	@Override
+	public Flux<ListItem> list(String prefix, String delimiter, int maxResults, String continuation)
+	{
+		return this.delegate.list(prefix, delimiter, maxResults, continuation);
+	}
+
+	/**
+	 * Copy a buffer into an array and release it, the arrays are shared by the readers so they're never changed
+	 *
+	 * @param buffer: DataBuffer
+	 * @return byte[]
+	 */
+	protected static byte[] toBytes(DataBuffer buffer)
+	{
+		byte[] bytes = new byte[buffer.readableByteCount()];
+		buffer.read(bytes);
+		DataBufferUtils.release(buffer);
+		return bytes;
+	}
+}
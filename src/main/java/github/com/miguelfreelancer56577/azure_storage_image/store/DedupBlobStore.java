@@ -0,0 +1,438 @@
+package github.com.miguelfreelancer56577.azure_storage_image.store;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+
+import github.com.miguelfreelancer56577.azure_storage_image.exception.BlobException;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * BlobStore which keeps a single copy of the content of the blob files with the same SHA-256 digest.
+ *
+ * The content is written under _cas/data/ while it's hashed, then the digest is looked up under _cas/sha256/,
+ * when another blob file had the same content the new copy is deleted. The blob file of each name is a small
+ * pointer to the content, so the handlers see the names and the properties of the content as before.
+ *
+ * A client which sends the digest before the content skips the transfer when the digest is already stored,
+ * see link. The content is never deleted, deleting a name only removes its pointer.
+ *
+ * The pointers carry the properties of their content, so following one reads it without a stat of the content,
+ * and the pointers already followed are kept by their ETag, so a stat or a listing of names whose pointers
+ * didn't change makes no more calls than without dedup.
+ *
+ * @author mangelt
+ *
+ */
+@Slf4j
+public class DedupBlobStore implements BlobStore
+{
+
+	public static final String PREFIX = "_cas/";
+
+	protected static final String DATA = PREFIX + "data/";
+
+	protected static final String DIGESTS = PREFIX + "sha256/";
+
+	protected static final String MAGIC = "blob-pointer/1\n";
+
+	protected static final int MAX_POINTER_LENGTH = 1024;
+
+	protected final BlobStore delegate;
+
+	protected final Scheduler scheduler;
+
+	protected final DataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+	/**
+	 * Content of the pointers already read, keyed by name, only used while the ETag of the pointer is the same
+	 */
+	protected final Map<String, Pointer> resolved;
+
+	public DedupBlobStore(BlobStore delegate, Scheduler scheduler, int maxPointers)
+	{
+		this.delegate = delegate;
+		this.scheduler = scheduler;
+		this.resolved = Collections.synchronizedMap(new LinkedHashMap<String, Pointer>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Pointer> eldest)
+			{
+				return this.size() > maxPointers;
+			}
+		});
+	}
+
+	@Override
+	public Mono<BlobInfo> stat(String name)
+	{
+		return this.delegate.stat(name)
+				.flatMap(blob -> this.follow(blob)
+						.map(data -> DedupBlobStore.named(blob.getName(), data, blob.getLastModified())));
+	}
+
+	@Override
+	public Mono<Boolean> exists(String name)
+	{
+		return this.delegate.exists(name);
+	}
+
+	@Override
+	public Flux<DataBuffer> get(BlobInfo blob)
+	{
+		return this.getRange(blob, 0, blob.getLength());
+	}
+
+	@Override
+	public Flux<DataBuffer> getRange(BlobInfo blob, long offset, long count)
+	{
+		return this.content(blob)
+				.flatMapMany(data -> this.delegate.getRange(data, offset, count));
+	}
+
+	@Override
+	public Mono<BlobInfo> put(String name, Flux<DataBuffer> content)
+	{
+		return Mono.defer(() ->
+		{
+			MessageDigest sha = DedupBlobStore.sha256();
+			String staging = DATA + UUID.randomUUID();
+
+			return this.delegate.put(staging, content.doOnNext(buffer -> sha.update(buffer.asByteBuffer())))
+					.flatMap(data -> this.store(name, data, DedupBlobStore.hex(sha.digest())));
+		});
+	}
+
+	@Override
+	public Mono<BlobInfo> put(String name, File file)
+	{
+		return Mono.fromCallable(() ->
+		{
+			MessageDigest sha = DedupBlobStore.sha256();
+			byte[] chunk = new byte[64 * 1024];
+
+			try (InputStream in = Files.newInputStream(file.toPath()))
+			{
+				for (int read = in.read(chunk); read != -1; read = in.read(chunk))
+				{
+					sha.update(chunk, 0, read);
+				}
+			}
+			return DedupBlobStore.hex(sha.digest());
+		})
+				.subscribeOn(this.scheduler)
+				.flatMap(digest -> this.link(name, digest, data -> true)
+						.switchIfEmpty(Mono.defer(() -> this.delegate.put(DATA + UUID.randomUUID(), file)
+								.flatMap(data -> this.store(name, data, digest)))));
+	}
+
+	/**
+	 * Point the name to the content of the digest, without transferring it again
+	 *
+	 * @param name: String
+	 * @param sha256: String hex digest of the content
+	 * @param accept: Predicate<BlobInfo> checked against the properties of the content before the name points to it
+	 * @return Mono<BlobInfo> empty when no blob file has that content or it isn't accepted
+	 */
+	@Override
+	public Mono<BlobInfo> link(String name, String sha256, Predicate<BlobInfo> accept)
+	{
+		if (sha256 == null || !sha256.matches("[0-9a-f]{64}"))
+		{
+			return Mono.empty();
+		}
+
+		return this.resolve(DIGESTS + sha256)
+				.filter(accept)
+				.flatMap(data ->
+				{
+					log.info("{} HAS THE SAME CONTENT THAN {}, THE TRANSFER IS SKIPPED", name, data.getName());
+					return this.point(name, data, sha256);
+				});
+	}
+
+	@Override
+	public Mono<Boolean> delete(String name)
+	{
+		this.resolved.remove(name);
+		return this.delegate.delete(name);
+	}
+
+	@Override
+	public Flux<BlobInfo> list(String prefix)
+	{
+		return this.delegate.list(prefix)
+				.filter(blob -> !blob.getName().startsWith(PREFIX))
+				.flatMapSequential(blob -> this.follow(blob)
+						.map(data -> DedupBlobStore.named(blob.getName(), data, blob.getLastModified())), 8);
+	}
+
+	@Override
+	public Flux<ListItem> list(String prefix, String delimiter, int maxResults, String continuation)
+	{
+		return this.delegate.list(prefix, delimiter, maxResults, continuation)
+				.filter(item -> (item.getName() == null || !item.getName().startsWith(PREFIX))
+						&& (item.getPrefix() == null || !item.getPrefix().startsWith(PREFIX)))
+				.flatMapSequential(item ->
+				{
+					if (item.getName() == null)
+					{
+						return Mono.just(item);
+					}
+
+					BlobInfo blob = BlobInfo.builder()
+							.name(item.getName())
+							.length(item.getLength())
+							.eTag(item.getETag())
+							.lastModified(item.getLastModified())
+							.build();
+
+					return this.follow(blob)
+							.map(data -> ListItem.of(DedupBlobStore.named(blob.getName(), data, blob.getLastModified())));
+				}, 8);
+	}
+
+	/**
+	 * Keep the content just written or, when the digest is already stored, delete it and reuse the stored one
+	 *
+	 * @param name: String
+	 * @param data: BlobInfo content written under _cas/data/
+	 * @param digest: String
+	 * @return Mono<BlobInfo> properties seen under the name
+	 */
+	protected Mono<BlobInfo> store(String name, BlobInfo data, String digest)
+	{
+		return this.resolve(DIGESTS + digest)
+				.flatMap(existing ->
+				{
+					log.info("{} HAS THE SAME CONTENT THAN {}, THE NEW COPY IS DELETED", name, existing.getName());
+					return this.delegate.delete(data.getName())
+							.thenReturn(existing);
+				})
+				.switchIfEmpty(Mono.defer(() -> this.write(DIGESTS + digest, data, digest)
+						.thenReturn(data)))
+				.flatMap(content -> this.point(name, content, digest));
+	}
+
+	/**
+	 * Write the pointer of the name to the content
+	 *
+	 * @param name: String
+	 * @param data: BlobInfo
+	 * @param digest: String
+	 * @return Mono<BlobInfo> properties seen under the name
+	 */
+	protected Mono<BlobInfo> point(String name, BlobInfo data, String digest)
+	{
+		return this.write(name, data, digest)
+				.map(pointer -> DedupBlobStore.named(name, data, pointer.getLastModified()));
+	}
+
+	/**
+	 * Write a pointer blob file with the name and the properties of the content
+	 *
+	 * @param name: String
+	 * @param data: BlobInfo content
+	 * @param digest: String
+	 * @return Mono<BlobInfo> properties of the pointer
+	 */
+	protected Mono<BlobInfo> write(String name, BlobInfo data, String digest)
+	{
+		byte[] pointer = String.join("\n", MAGIC + data.getName(), digest, String.valueOf(data.getLength()),
+				DedupBlobStore.text(data.getETag()), String.valueOf(data.getLastModified()), DedupBlobStore.text(data.getContentType()),
+				DedupBlobStore.text(data.getContentMd5()), DedupBlobStore.text(data.getCacheControl()), "")
+				.getBytes(StandardCharsets.UTF_8);
+
+		return this.delegate.put(name, Flux.just(this.bufferFactory.wrap(pointer)))
+				.doOnNext(written -> this.resolved.put(name, new Pointer(written.getETag(), data)));
+	}
+
+	/**
+	 * Get the properties of the content of a name
+	 *
+	 * @param name: String
+	 * @return Mono<BlobInfo> empty when the name doesn't exist
+	 */
+	protected Mono<BlobInfo> resolve(String name)
+	{
+		return this.delegate.stat(name)
+				.flatMap(this::follow);
+	}
+
+	/**
+	 * Get the properties of the content of a blob file, the blob files which aren't a pointer are their own content.
+	 * A pointer already followed with the same ETag isn't read again.
+	 *
+	 * @param blob: BlobInfo
+	 * @return Mono<BlobInfo> the blob file itself when it isn't a pointer
+	 */
+	protected Mono<BlobInfo> follow(BlobInfo blob)
+	{
+		if (blob.getLength() > MAX_POINTER_LENGTH || blob.getName().startsWith(DATA))
+		{
+			return Mono.just(blob);
+		}
+
+		Pointer pointer = this.resolved.get(blob.getName());
+
+		if (pointer != null && pointer.eTag != null && pointer.eTag.equals(blob.getETag()))
+		{
+			return Mono.just(pointer.data);
+		}
+
+		return this.read(blob)
+				.doOnNext(data -> this.resolved.put(blob.getName(), new Pointer(blob.getETag(), data)));
+	}
+
+	/**
+	 * Read a pointer and get the properties of its content
+	 *
+	 * @param blob: BlobInfo
+	 * @return Mono<BlobInfo> the blob file itself when it isn't a pointer
+	 */
+	protected Mono<BlobInfo> read(BlobInfo blob)
+	{
+		return DataBufferUtils.join(this.delegate.get(blob))
+				.map(buffer ->
+				{
+					byte[] content = new byte[buffer.readableByteCount()];
+					buffer.read(content);
+					DataBufferUtils.release(buffer);
+					return new String(content, StandardCharsets.UTF_8);
+				})
+				.defaultIfEmpty("")
+				.map(content ->
+				{
+					if (!content.startsWith(MAGIC))
+					{
+						return blob;
+					}
+
+					String[] lines = content.split("\n", -1);
+
+					return BlobInfo.builder()
+							.name(lines[1])
+							.length(Long.parseLong(lines[3]))
+							.eTag(DedupBlobStore.nullable(lines[4]))
+							.lastModified(Long.parseLong(lines[5]))
+							.contentType(DedupBlobStore.nullable(lines[6]))
+							.contentMd5(DedupBlobStore.nullable(lines[7]))
+							.cacheControl(DedupBlobStore.nullable(lines[8]))
+							.build();
+				});
+	}
+
+	/**
+	 * Get the properties of the content of a blob file returned by stat, using the pointers already read
+	 *
+	 * @param blob: BlobInfo
+	 * @return Mono<BlobInfo>
+	 */
+	protected Mono<BlobInfo> content(BlobInfo blob)
+	{
+		if (blob.getName().startsWith(PREFIX))
+		{
+			return Mono.just(blob);
+		}
+
+		Pointer pointer = this.resolved.get(blob.getName());
+
+		if (pointer != null && pointer.data.getETag() != null && pointer.data.getETag().equals(blob.getETag()))
+		{
+			return Mono.just(pointer.data);
+		}
+
+		return this.resolve(blob.getName())
+				.filter(current -> current.getETag() == null || current.getETag().equals(blob.getETag()))
+				.switchIfEmpty(Mono.error(new BlobException(HttpStatus.PRECONDITION_FAILED, "The blob file changed while it was read.")));
+	}
+
+	/**
+	 * Get the properties of the content under a name
+	 *
+	 * @param name: String
+	 * @param data: BlobInfo
+	 * @param lastModified: long of the pointer
+	 * @return BlobInfo
+	 */
+	protected static BlobInfo named(String name, BlobInfo data, long lastModified)
+	{
+		return BlobInfo.builder()
+				.name(name)
+				.length(data.getLength())
+				.eTag(data.getETag())
+				.lastModified(lastModified)
+				.contentType(data.getContentType())
+				.contentMd5(data.getContentMd5())
+				.cacheControl(data.getCacheControl())
+				.build();
+	}
+
+	protected static String text(String value)
+	{
+		return value == null ? "" : value;
+	}
+
+	protected static String nullable(String text)
+	{
+		return text.isEmpty() ? null : text;
+	}
+
+	protected static MessageDigest sha256()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	protected static String hex(byte[] digest)
+	{
+		StringBuilder hex = new StringBuilder(digest.length * 2);
+		for (byte b : digest)
+		{
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Content of a pointer read with the ETag of the pointer
+	 */
+	protected static class Pointer
+	{
+		protected final String eTag;
+
+		protected final BlobInfo data;
+
+		protected Pointer(String eTag, BlobInfo data)
+		{
+			this.eTag = eTag;
+			this.data = data;
+		}
+	}
+
+}
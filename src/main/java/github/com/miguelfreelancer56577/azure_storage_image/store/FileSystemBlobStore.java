@@ -0,0 +1,251 @@
+package github.com.miguelfreelancer56577.azure_storage_image.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLConnection;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+
+import github.com.miguelfreelancer56577.azure_storage_image.exception.BlobException;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * BlobStore backed by a directory of the local file system, used by the tests and to run
+ * the service without azure. Each blob file is a file under the root directory.
+ *
+ * @author mangelt
+ *
+ */
+@Slf4j
+public class FileSystemBlobStore implements BlobStore
+{
+
+	protected static final String TMP_PREFIX = ".upload-";
+
+	protected final Path root;
+
+	protected final Scheduler scheduler;
+
+	protected final int chunkSize;
+
+	protected final DataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+	public FileSystemBlobStore(Path root, Scheduler scheduler, int chunkSize)
+	{
+		this.root = root.toAbsolutePath().normalize();
+		this.scheduler = scheduler;
+		this.chunkSize = chunkSize;
+	}
+
+	@Override
+	public Mono<BlobInfo> stat(String name)
+	{
+		return Mono.fromCallable(() ->
+		{
+			Path path = this.path(name);
+			return Files.isRegularFile(path) ? FileSystemBlobStore.toInfo(name, path) : null;
+		})
+				.subscribeOn(this.scheduler);
+	}
+
+	@Override
+	public Mono<Boolean> exists(String name)
+	{
+		return this.stat(name)
+				.hasElement();
+	}
+
+	@Override
+	public Flux<DataBuffer> get(BlobInfo blob)
+	{
+		return this.getRange(blob, 0, blob.getLength());
+	}
+
+	@Override
+	public Flux<DataBuffer> getRange(BlobInfo blob, long offset, long count)
+	{
+		if (count == 0)
+		{
+			return Flux.empty();
+		}
+
+		Flux<DataBuffer> content = DataBufferUtils.readAsynchronousFileChannel(
+				() -> AsynchronousFileChannel.open(this.path(blob.getName()), StandardOpenOption.READ),
+				offset, this.bufferFactory, this.chunkSize);
+
+		return DataBufferUtils.takeUntilByteCount(content, count);
+	}
+
+	@Override
+	public Mono<BlobInfo> put(String name, Flux<DataBuffer> content)
+	{
+		return Mono.fromCallable(() ->
+		{
+			Path target = this.path(name);
+			Files.createDirectories(target.getParent());
+			return Files.createTempFile(target.getParent(), FileSystemBlobStore.TMP_PREFIX, ".tmp");
+		})
+				.subscribeOn(this.scheduler)
+				.flatMap(tmp -> Mono.using(
+						() -> AsynchronousFileChannel.open(tmp, StandardOpenOption.WRITE),
+						channel -> DataBufferUtils.write(content, channel)
+								.map(DataBufferUtils::release)
+								.then(),
+						FileSystemBlobStore::close)
+						.then(Mono.fromCallable(() -> Files.move(tmp, this.path(name), StandardCopyOption.REPLACE_EXISTING,
+								StandardCopyOption.ATOMIC_MOVE))
+								.subscribeOn(this.scheduler))
+						.doFinally(signal ->
+						{
+							if (signal != SignalType.ON_COMPLETE)
+							{
+								FileSystemBlobStore.delete(tmp);
+							}
+						}))
+				.then(this.stat(name));
+	}
+
+	@Override
+	public Mono<BlobInfo> put(String name, File file)
+	{
+		return Mono.fromCallable(() ->
+		{
+			Path target = this.path(name);
+			Files.createDirectories(target.getParent());
+			return Files.copy(file.toPath(), target, StandardCopyOption.REPLACE_EXISTING);
+		})
+				.subscribeOn(this.scheduler)
+				.then(this.stat(name));
+	}
+
+	@Override
+	public Mono<Boolean> delete(String name)
+	{
+		return Mono.fromCallable(() -> Files.deleteIfExists(this.path(name)))
+				.subscribeOn(this.scheduler);
+	}
+
+	@Override
+	public Flux<BlobInfo> list(String prefix)
+	{
+		return Mono.fromCallable(() ->
+		{
+			if (!Files.isDirectory(this.root))
+			{
+				return Collections.<Path>emptyList();
+			}
+
+			try (Stream<Path> paths = Files.walk(this.root))
+			{
+				return paths.filter(Files::isRegularFile)
+						.filter(path -> !path.getFileName().toString().startsWith(FileSystemBlobStore.TMP_PREFIX))
+						.sorted()
+						.collect(Collectors.toList());
+			}
+		})
+				.flatMapMany(Flux::fromIterable)
+				.map(path -> this.root.relativize(path).toString().replace(File.separatorChar, '/'))
+				.filter(name -> prefix == null || name.startsWith(prefix))
+				.flatMap(this::stat, 1)
+				.subscribeOn(this.scheduler);
+	}
+
+	/**
+	 * The continuation is the last name or directory of the previous page.
+	 */
+	@Override
+	public Flux<ListItem> list(String prefix, String delimiter, int maxResults, String continuation)
+	{
+		return Listings.page(this.list(prefix), prefix, delimiter, maxResults, continuation);
+	}
+
+	/**
+	 * Get the file of a blob file, the names which leave the root directory are rejected
+	 *
+	 * @param name: String
+	 * @return Path
+	 */
+	protected Path path(String name)
+	{
+		Path path = this.root.resolve(name).normalize();
+
+		if (!path.startsWith(this.root) || path.equals(this.root))
+		{
+			throw new BlobException(HttpStatus.BAD_REQUEST, "The name of the file is not valid.");
+		}
+		return path;
+	}
+
+	/**
+	 * Transform the attributes of a file into a BlobInfo, the ETag changes with the date and the length
+	 *
+	 * @param name: String
+	 * @param path: Path
+	 * @return BlobInfo
+	 * @throws IOException
+	 */
+	protected static BlobInfo toInfo(String name, Path path) throws IOException
+	{
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		long lastModified = attributes.lastModifiedTime().toMillis();
+
+		return BlobInfo.builder()
+				.name(name)
+				.length(attributes.size())
+				.eTag("\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(attributes.size()) + "\"")
+				.lastModified(lastModified)
+				.contentType(URLConnection.guessContentTypeFromName(name))
+				.build();
+	}
+
+	/**
+	 * Delete the temporal file of a write which failed or was cancelled
+	 *
+	 * @param tmp: Path
+	 */
+	protected static void delete(Path tmp)
+	{
+		try
+		{
+			Files.deleteIfExists(tmp);
+		}
+		catch (IOException e)
+		{
+			log.error("ERROR TO DELETE THE FILE {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Close a channel used to write a blob file
+	 *
+	 * @param channel: AsynchronousFileChannel
+	 */
+	protected static void close(AsynchronousFileChannel channel)
+	{
+		try
+		{
+			channel.close();
+		}
+		catch (IOException e)
+		{
+			log.error("ERROR TO CLOSE THE FILE {}", e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,438 @@
+package github.com.miguelfreelancer56577.azure_storage_image.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Predicate;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpStatus;
+
+import github.com.miguelfreelancer56577.azure_storage_image.exception.BlobException;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * BlobStore which keeps the properties of the blob files of another BlobStore in a local index.
+ *
+ * The existence checks, the properties used by the conditional downloads and the listings are answered
+ * from the index without calling azure, the uploads and deletes update it once the other BlobStore finishes.
+ *
+ * The index is a sorted map in memory saved into a snapshot file, which is loaded on start, and resynced
+ * with a full listing of the other BlobStore every reconcile-interval. The snapshot can be old, so until
+ * the first reconcile every call goes to the other BlobStore and only refreshes the entries.
+ *
+ * The changes made outside of this service between two reconciles are found by falling back to the other
+ * BlobStore: a name missing in the index is looked up there, and a read answered with 412 because the
+ * ETag of the entry is old refreshes the entry, so only that read fails.
+ *
+ * @author mangelt
+ *
+ */
+@Slf4j
+public class IndexedBlobStore implements BlobStore, Closeable
+{
+
+	protected static final int SNAPSHOT_VERSION = 3;
+
+	protected final BlobStore delegate;
+
+	protected final Path snapshot;
+
+	protected final Duration reconcileInterval;
+
+	protected volatile NavigableMap<String, BlobInfo> index = new ConcurrentSkipListMap<>();
+
+	protected volatile boolean ready;
+
+	/**
+	 * Names uploaded or deleted while a reconcile is running, their entries are kept over the listing
+	 */
+	protected volatile Set<String> touched;
+
+	protected Disposable reconciler;
+
+	public IndexedBlobStore(BlobStore delegate, Path snapshot, Duration reconcileInterval)
+	{
+		this.delegate = delegate;
+		this.snapshot = snapshot;
+		this.reconcileInterval = reconcileInterval;
+	}
+
+	/**
+	 * Load the snapshot and start the reconciler, the first reconcile runs right away
+	 */
+	public void start()
+	{
+		this.load();
+
+		this.reconciler = Flux.interval(Duration.ZERO, this.reconcileInterval)
+				.onBackpressureDrop()
+				.concatMap(tick -> this.reconcile()
+						.onErrorResume(e ->
+						{
+							log.error("THE INDEX COULDN'T BE RECONCILED {}", e.getMessage());
+							return Mono.empty();
+						}), 1)
+				.subscribe();
+	}
+
+	@Override
+	public void close()
+	{
+		if (this.reconciler != null)
+		{
+			this.reconciler.dispose();
+		}
+		if (this.ready)
+		{
+			this.save();
+		}
+	}
+
+	@Override
+	public Mono<BlobInfo> stat(String name)
+	{
+		BlobInfo blob = this.ready ? this.index.get(name) : null;
+
+		if (blob == null)
+		{
+			return this.refresh(name);
+		}
+		return Mono.just(blob);
+	}
+
+	@Override
+	public Mono<Boolean> exists(String name)
+	{
+		return this.stat(name)
+				.hasElement();
+	}
+
+	@Override
+	public Flux<DataBuffer> get(BlobInfo blob)
+	{
+		return this.delegate.get(blob)
+				.onErrorResume(IndexedBlobStore::isChanged, e -> this.refresh(blob.getName()).then(Mono.error(e)));
+	}
+
+	@Override
+	public Flux<DataBuffer> getRange(BlobInfo blob, long offset, long count)
+	{
+		return this.delegate.getRange(blob, offset, count)
+				.onErrorResume(IndexedBlobStore::isChanged, e -> this.refresh(blob.getName()).then(Mono.error(e)));
+	}
+
+	@Override
+	public Mono<BlobInfo> put(String name, Flux<DataBuffer> content)
+	{
+		return this.delegate.put(name, content)
+				.doOnNext(this::indexed);
+	}
+
+	@Override
+	public Mono<BlobInfo> put(String name, File file)
+	{
+		return this.delegate.put(name, file)
+				.doOnNext(this::indexed);
+	}
+
+	@Override
+	public Mono<BlobInfo> link(String name, String sha256, Predicate<BlobInfo> accept)
+	{
+		return this.delegate.link(name, sha256, accept)
+				.doOnNext(this::indexed);
+	}
+
+	@Override
+	public Mono<Boolean> delete(String name)
+	{
+		return this.delegate.delete(name)
+				.doOnNext(deleted -> this.removed(name));
+	}
+
+	@Override
+	public Flux<BlobInfo> list(String prefix)
+	{
+		if (!this.ready)
+		{
+			return this.delegate.list(prefix);
+		}
+		return Flux.fromIterable(this.entries(prefix).values());
+	}
+
+	@Override
+	public Flux<ListItem> list(String prefix, String delimiter, int maxResults, String continuation)
+	{
+		if (!this.ready)
+		{
+			return this.delegate.list(prefix, delimiter, maxResults, continuation);
+		}
+
+		NavigableMap<String, BlobInfo> entries = this.entries(prefix);
+
+		if (continuation != null)
+		{
+			entries = entries.tailMap(continuation, false);
+		}
+		return Listings.page(Flux.fromIterable(entries.values()), prefix, delimiter, maxResults, continuation);
+	}
+
+	/**
+	 * Get the number of blob files in the index
+	 *
+	 * @return int
+	 */
+	public int size()
+	{
+		return this.index.size();
+	}
+
+	/**
+	 * Check if the index answers the calls
+	 *
+	 * @return boolean
+	 */
+	public boolean isReady()
+	{
+		return this.ready;
+	}
+
+	/**
+	 * Replace the index with a full listing of the other BlobStore and save the snapshot,
+	 * the entries changed while the listing runs are kept.
+	 *
+	 * @return Mono<Void>
+	 */
+	public Mono<Void> reconcile()
+	{
+		return Mono.defer(() ->
+		{
+			long start = System.nanoTime();
+			Set<String> changes = ConcurrentHashMap.newKeySet();
+			this.touched = changes;
+
+			return this.delegate.list(null)
+					.collect(ConcurrentSkipListMap<String, BlobInfo>::new, (map, blob) -> map.put(blob.getName(), blob))
+					.doOnNext(listed ->
+					{
+						synchronized (this)
+						{
+							for (String name : changes)
+							{
+								BlobInfo current = this.index.get(name);
+								if (current == null)
+								{
+									listed.remove(name);
+								}
+								else
+								{
+									listed.put(name, current);
+								}
+							}
+							this.index = listed;
+							this.touched = null;
+							this.ready = true;
+						}
+
+						log.info("INDEX RECONCILED WITH {} BLOB FILES IN {} MS", listed.size(), (System.nanoTime() - start) / 1000000);
+						this.save();
+					})
+					.doFinally(signal -> this.touched = null)
+					.then();
+		});
+	}
+
+	/**
+	 * Get the properties of a blob file from the other BlobStore and replace its entry
+	 *
+	 * @param name: String
+	 * @return Mono<BlobInfo> empty when the blob file doesn't exist
+	 */
+	protected Mono<BlobInfo> refresh(String name)
+	{
+		return this.delegate.stat(name)
+				.doOnNext(this::indexed)
+				.switchIfEmpty(Mono.fromRunnable(() ->
+				{
+					if (this.index.containsKey(name))
+					{
+						this.removed(name);
+					}
+				}));
+	}
+
+	/**
+	 * Check if a read failed because the ETag of the entry isn't the current one
+	 *
+	 * @param e: Throwable
+	 * @return boolean
+	 */
+	protected static boolean isChanged(Throwable e)
+	{
+		return e instanceof BlobException && ((BlobException)e).getStatus() == HttpStatus.PRECONDITION_FAILED;
+	}
+
+	/**
+	 * Add or replace the properties of an uploaded blob file
+	 *
+	 * @param blob: BlobInfo
+	 */
+	protected synchronized void indexed(BlobInfo blob)
+	{
+		this.index.put(blob.getName(), blob);
+		this.touch(blob.getName());
+	}
+
+	/**
+	 * Remove a deleted blob file
+	 *
+	 * @param name: String
+	 */
+	protected synchronized void removed(String name)
+	{
+		this.index.remove(name);
+		this.touch(name);
+	}
+
+	protected void touch(String name)
+	{
+		Set<String> changes = this.touched;
+		if (changes != null)
+		{
+			changes.add(name);
+		}
+	}
+
+	/**
+	 * Get the entries whose name starts with the prefix
+	 *
+	 * @param prefix: String
+	 * @return NavigableMap<String, BlobInfo>
+	 */
+	protected NavigableMap<String, BlobInfo> entries(String prefix)
+	{
+		if (prefix == null || prefix.isEmpty())
+		{
+			return this.index;
+		}
+		return this.index.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+	}
+
+	/**
+	 * Load the snapshot file, the index isn't ready until the first reconcile
+	 */
+	protected void load()
+	{
+		if (this.snapshot == null || !Files.isRegularFile(this.snapshot))
+		{
+			return;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.snapshot))))
+		{
+			if (in.readInt() != IndexedBlobStore.SNAPSHOT_VERSION)
+			{
+				log.info("INDEX SNAPSHOT {} HAS ANOTHER VERSION, IT'S IGNORED", this.snapshot);
+				return;
+			}
+
+			NavigableMap<String, BlobInfo> loaded = new ConcurrentSkipListMap<>();
+			int size = in.readInt();
+
+			for (int i = 0; i < size; i++)
+			{
+				BlobInfo blob = BlobInfo.builder()
+						.name(in.readUTF())
+						.length(in.readLong())
+						.eTag(IndexedBlobStore.readNullable(in))
+						.lastModified(in.readLong())
+						.contentType(IndexedBlobStore.readNullable(in))
+						.contentMd5(IndexedBlobStore.readNullable(in))
+						.cacheControl(IndexedBlobStore.readNullable(in))
+						.build();
+				loaded.put(blob.getName(), blob);
+			}
+
+			this.index = loaded;
+			log.info("INDEX LOADED WITH {} BLOB FILES FROM {}", size, this.snapshot);
+		}
+		catch (IOException e)
+		{
+			log.error("INDEX SNAPSHOT {} COULDN'T BE LOADED {}", this.snapshot, e.getMessage());
+		}
+	}
+
+	/**
+	 * Save the index into the snapshot file, it's written into a temporal file then moved
+	 */
+	protected void save()
+	{
+		if (this.snapshot == null)
+		{
+			return;
+		}
+
+		try
+		{
+			Path parent = this.snapshot.toAbsolutePath().getParent();
+			Files.createDirectories(parent);
+			Path tmp = Files.createTempFile(parent, "index-", ".tmp");
+
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp))))
+			{
+				List<BlobInfo> entries = new ArrayList<>(this.index.values());
+				out.writeInt(IndexedBlobStore.SNAPSHOT_VERSION);
+				out.writeInt(entries.size());
+
+				for (BlobInfo blob : entries)
+				{
+					out.writeUTF(blob.getName());
+					out.writeLong(blob.getLength());
+					IndexedBlobStore.writeNullable(out, blob.getETag());
+					out.writeLong(blob.getLastModified());
+					IndexedBlobStore.writeNullable(out, blob.getContentType());
+					IndexedBlobStore.writeNullable(out, blob.getContentMd5());
+					IndexedBlobStore.writeNullable(out, blob.getCacheControl());
+				}
+			}
+
+			Files.move(tmp, this.snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e)
+		{
+			log.error("INDEX SNAPSHOT {} COULDN'T BE SAVED {}", this.snapshot, e.getMessage());
+		}
+	}
+
+	protected static void writeNullable(DataOutputStream out, String value) throws IOException
+	{
+		out.writeBoolean(value != null);
+		if (value != null)
+		{
+			out.writeUTF(value);
+		}
+	}
+
+	protected static String readNullable(DataInputStream in) throws IOException
+	{
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+}
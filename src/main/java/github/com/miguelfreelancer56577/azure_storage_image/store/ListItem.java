@@ -0,0 +1,43 @@
+package github.com.miguelfreelancer56577.azure_storage_image.store;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Line of a listing of blob files, it can be
+ *
+ * a blob file: name, length, eTag and lastModified
+ * a directory grouped by the delimiter: prefix
+ * the end of a page with more results: continuation, sent as the token param of the next page
+ *
+ * @author mangelt
+ *
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ListItem
+{
+	protected String name;
+	protected Long length;
+	protected String eTag;
+	protected Long lastModified;
+	protected String prefix;
+	protected String continuation;
+
+	public static ListItem of(BlobInfo blob)
+	{
+		return ListItem.builder()
+				.name(blob.getName())
+				.length(blob.getLength())
+				.eTag(blob.getETag())
+				.lastModified(blob.getLastModified())
+				.build();
+	}
+}
@@ -0,0 +1,75 @@
+package github.com.miguelfreelancer56577.azure_storage_image.store;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Utility class used by the BlobStores which list the blob files themselves to build the pages of a listing
+ *
+ * @author mangelt
+ *
+ */
+public class Listings
+{
+
+	/**
+	 * Build a page of a listing from the blob files of the prefix sorted by name
+	 *
+	 * The blob files under the delimiter are grouped as one directory item, the continuation is the
+	 * last name or directory of the previous page.
+	 *
+	 * The items are sent as they are listed, one more item is read to know if there's a next page and it's
+	 * replaced by the continuation, so the page is never kept in memory.
+	 *
+	 * @param blobs: Flux<BlobInfo> sorted by name
+	 * @param prefix: String
+	 * @param delimiter: String null for a flat listing
+	 * @param maxResults: int
+	 * @param continuation: String
+	 * @return Flux<ListItem>
+	 */
+	public static Flux<ListItem> page(Flux<BlobInfo> blobs, String prefix, String delimiter, int maxResults, String continuation)
+	{
+		String start = prefix == null ? "" : prefix;
+
+		return Flux.defer(() ->
+		{
+			AtomicInteger count = new AtomicInteger();
+			AtomicReference<String> last = new AtomicReference<>();
+
+			return blobs.map(blob ->
+					{
+						int index = delimiter == null ? -1 : blob.getName().indexOf(delimiter, start.length());
+
+						return index == -1
+								? ListItem.of(blob)
+								: ListItem.builder().prefix(blob.getName().substring(0, index + delimiter.length())).build();
+					})
+					.distinctUntilChanged(Listings::key)
+					.filter(item -> continuation == null || Listings.key(item).compareTo(continuation) > 0)
+					.take(maxResults + 1L)
+					.map(item ->
+					{
+						if (count.incrementAndGet() > maxResults)
+						{
+							return ListItem.builder().continuation(last.get()).build();
+						}
+						last.set(Listings.key(item));
+						return item;
+					});
+		});
+	}
+
+	/**
+	 * Get the name of a blob file or the prefix of a directory of a listing
+	 *
+	 * @param item: ListItem
+	 * @return String
+	 */
+	protected static String key(ListItem item)
+	{
+		return item.getName() == null ? item.getPrefix() : item.getName();
+	}
+}
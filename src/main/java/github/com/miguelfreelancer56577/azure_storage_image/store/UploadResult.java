@@ -0,0 +1,28 @@
+package github.com.miguelfreelancer56577.azure_storage_image.store;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Result of the upload of one file of a batch, the manifest of a batch has one for each file
+ *
+ * @author mangelt
+ *
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class UploadResult
+{
+	protected String name;
+	protected int status;
+	protected Long length;
+	protected String eTag;
+	protected String message;
+}
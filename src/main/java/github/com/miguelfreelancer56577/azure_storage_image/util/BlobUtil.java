@@ -1,16 +1,28 @@
 package github.com.miguelfreelancer56577.azure_storage_image.util;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.commons.io.FilenameUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.http.codec.multipart.Part;
 import org.springframework.util.MultiValueMap;
+import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 
+import github.com.miguelfreelancer56577.azure_storage_image.blob.CircuitOpenException;
 import github.com.miguelfreelancer56577.azure_storage_image.exception.BlobException;
+import github.com.miguelfreelancer56577.azure_storage_image.exception.BusyException;
+import github.com.miguelfreelancer56577.azure_storage_image.image.ImageHeader;
 import reactor.core.publisher.Mono;
 
 /**
@@ -21,6 +33,11 @@ import reactor.core.publisher.Mono;
 public class BlobUtil
 {
 
+	/**
+	 * Header with the hex SHA-256 digest of the uploaded file, the transfer is skipped when the digest is stored
+	 */
+	public static final String CONTENT_SHA256 = "X-Content-SHA256";
+
 	/**
 	 * Transform from MultiValueMap<String, Part> to Mono<File>
 	 *
@@ -46,8 +63,26 @@ public class BlobUtil
 
 			return Mono.error(new BlobException(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage()));
 		}
-		filePart.transferTo(tmpFile);
-		return Mono.just(tmpFile);
+		return filePart.transferTo(tmpFile)
+				.thenReturn(tmpFile);
+	}
+
+	/**
+	 * Get the file part from MultiValueMap<String, Part> without writing it in disk
+	 *
+	 * @param parts : MultiValueMap<String, Part>
+	 * @return Mono<FilePart>
+	 */
+	public static Mono<FilePart> getFilePartFromMultipartData(MultiValueMap<String, Part> parts)
+	{
+		Part part = parts.getFirst("file");
+
+		if (!(part instanceof FilePart))
+		{
+			return Mono.error(new BlobException(HttpStatus.INTERNAL_SERVER_ERROR, "You must provide a file to use this service."));
+		}
+
+		return Mono.just((FilePart)part);
 	}
 
 	/**
@@ -71,6 +106,187 @@ public class BlobUtil
 		return true;
 	}
 
+	/**
+	 * Valid the name of a file sent in the body, such as the files of a batch, it can't be a path
+	 * nor start with the prefixes used by the blob files created by the service.
+	 *
+	 * @param fileName: String
+	 * @param reservedPrefixes: String...
+	 * @return boolean
+	 */
+	public static boolean isValidName(String fileName, String... reservedPrefixes)
+	{
+		if (fileName == null || fileName.trim().isEmpty() || ".".equals(fileName) || "..".equals(fileName))
+		{
+			throw new BlobException(HttpStatus.BAD_REQUEST, "You must provide the name of the file.");
+		}
+
+		if (fileName.indexOf('/') >= 0 || fileName.indexOf('\\') >= 0)
+		{
+			throw new BlobException(HttpStatus.BAD_REQUEST, "The name of the file can't be a path.");
+		}
+
+		for (String prefix : reservedPrefixes)
+		{
+			if (!prefix.isEmpty() && fileName.startsWith(prefix))
+			{
+				throw new BlobException(HttpStatus.BAD_REQUEST, "The name of the file can't start with " + prefix + ".");
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Valid file name and the name of the file part to be used.
+	 *
+	 * @param fileName: String
+	 * @param filePart: FilePart
+	 * @return boolean
+	 */
+	public static boolean isValidFile(String fileName, FilePart filePart)
+	{
+		return BlobUtil.isValidFile(fileName, new File(filePart.filename()));
+	}
+
+	/**
+	 * Detect the content type of a file, the images are detected from their first bytes
+	 * and the other files from the extension of their name.
+	 *
+	 * @param fileName: String
+	 * @param head: byte[] first bytes of the file
+	 * @param length: int number of bytes of head read
+	 * @return String application/octet-stream when it's unknown
+	 */
+	public static String detectContentType(String fileName, byte[] head, int length)
+	{
+		ImageHeader header = ImageHeader.read(head, length);
+
+		if (header != null)
+		{
+			return header.getFormat().getContentType();
+		}
+
+		return BlobUtil.getContentType(fileName, null).toString();
+	}
+
+	/**
+	 * Get the media type sent to the client with a blob file, from the content type stored with it
+	 * or, when it's not stored, from the extension of its name.
+	 *
+	 * @param fileName: String
+	 * @param contentType: String or null
+	 * @return MediaType
+	 */
+	public static MediaType getContentType(String fileName, String contentType)
+	{
+		if (contentType != null && !contentType.isEmpty() && !MediaType.APPLICATION_OCTET_STREAM_VALUE.equals(contentType))
+		{
+			try
+			{
+				return MediaType.parseMediaType(contentType);
+			}
+			catch (InvalidMediaTypeException e)
+			{
+				return BlobUtil.getContentType(fileName, null);
+			}
+		}
+
+		return MediaTypeFactory.getMediaType(fileName)
+				.orElse(MediaType.APPLICATION_OCTET_STREAM);
+	}
+
+	/**
+	 * Get the ranges requested by the client.
+	 *
+	 * The ranges are ignored, so the whole file is sent, when the Range header is not valid
+	 * or the If-Range header doesn't match the current ETag or last modified date of the blob file.
+	 *
+	 * @param rq: ServerRequest
+	 * @param eTag: String
+	 * @param lastModified: long
+	 * @return List<HttpRange>
+	 */
+	public static List<HttpRange> getRanges(ServerRequest rq, String eTag, long lastModified)
+	{
+		HttpHeaders headers = rq.headers().asHttpHeaders();
+		List<HttpRange> ranges;
+
+		try
+		{
+			ranges = headers.getRange();
+		}
+		catch (IllegalArgumentException e)
+		{
+			return Collections.emptyList();
+		}
+
+		String ifRange = headers.getFirst(HttpHeaders.IF_RANGE);
+
+		if (ranges.isEmpty() || ifRange == null)
+		{
+			return ranges;
+		}
+
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/"))
+		{
+			return ifRange.equals(eTag) ? ranges : Collections.emptyList();
+		}
+
+		try
+		{
+			long date = headers.getFirstDate(HttpHeaders.IF_RANGE);
+			return date / 1000 == lastModified / 1000 ? ranges : Collections.emptyList();
+		}
+		catch (IllegalArgumentException e)
+		{
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * Check if the copy of the client is the current version of the blob file,
+	 * through the If-None-Match header or, when it's not sent, the If-Modified-Since header.
+	 *
+	 * @param rq: ServerRequest
+	 * @param eTag: String
+	 * @param lastModified: long
+	 * @return boolean
+	 */
+	public static boolean isNotModified(ServerRequest rq, String eTag, long lastModified)
+	{
+		HttpHeaders headers = rq.headers().asHttpHeaders();
+		List<String> ifNoneMatch = headers.getIfNoneMatch();
+
+		if (!ifNoneMatch.isEmpty())
+		{
+			String current = BlobUtil.strongETag(eTag);
+			return ifNoneMatch.stream()
+					.anyMatch(tag -> "*".equals(tag) || BlobUtil.strongETag(tag).equals(current));
+		}
+
+		try
+		{
+			long ifModifiedSince = headers.getIfModifiedSince();
+			return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+		}
+		catch (IllegalArgumentException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Remove the weak prefix of an ETag, the weak comparison is used by If-None-Match
+	 *
+	 * @param eTag: String
+	 * @return String
+	 */
+	protected static String strongETag(String eTag)
+	{
+		return eTag != null && eTag.startsWith("W/") ? eTag.substring(2) : String.valueOf(eTag);
+	}
+
 	/**
 	 * Get custom exception then wrap into a Mono<ServerResponse>
 	 *
@@ -83,4 +299,75 @@ public class BlobUtil
 				.body(Mono.just(e.getMessage()), String.class);
 	}
 
+	/**
+	 * Wrap any error into a Mono<ServerResponse>, a request rejected because the blob scheduler
+	 * is full or because the circuit of the calls against azure is open is answered with a 503 status code.
+	 *
+	 * @param e: Throwable
+	 * @return Mono<ServerResponse>
+	 */
+	public static Mono<ServerResponse> onErrorResponse(Throwable e)
+	{
+		if (e instanceof RejectedExecutionException)
+		{
+			return ServerResponse.status(HttpStatus.SERVICE_UNAVAILABLE)
+					.header(HttpHeaders.RETRY_AFTER, String.valueOf(BlobUtil.retryAfter(e)))
+					.body(Mono.just(BlobUtil.toBlobException(e).getMessage()), String.class);
+		}
+
+		if (e instanceof CircuitOpenException)
+		{
+			return ServerResponse.status(HttpStatus.SERVICE_UNAVAILABLE)
+					.header(HttpHeaders.RETRY_AFTER, String.valueOf(((CircuitOpenException)e).getRetryAfter()))
+					.body(Mono.just(BlobUtil.toBlobException(e).getMessage()), String.class);
+		}
+
+		return BlobUtil.onErrorResponse(BlobUtil.toBlobException(e));
+	}
+
+	/**
+	 * Get the seconds to wait before sending again a request rejected by a full executor, from the
+	 * BusyException which rejected it, the scheduler wraps it in its own exception
+	 *
+	 * @param e: Throwable
+	 * @return long
+	 */
+	protected static long retryAfter(Throwable e)
+	{
+		for (Throwable cause = e; cause != null; cause = cause.getCause())
+		{
+			if (cause instanceof BusyException)
+			{
+				return ((BusyException)cause).getRetryAfter();
+			}
+		}
+		return 1;
+	}
+
+	/**
+	 * Transform any error into a BlobException with the status code sent to the client
+	 *
+	 * @param e: Throwable
+	 * @return BlobException
+	 */
+	public static BlobException toBlobException(Throwable e)
+	{
+		if (e instanceof BlobException)
+		{
+			return (BlobException)e;
+		}
+
+		if (e instanceof RejectedExecutionException)
+		{
+			return new BlobException(HttpStatus.SERVICE_UNAVAILABLE, "The service is busy, try again later.");
+		}
+
+		if (e instanceof CircuitOpenException)
+		{
+			return new BlobException(HttpStatus.SERVICE_UNAVAILABLE, "The storage is unavailable, try again later.");
+		}
+
+		return new BlobException(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage());
+	}
+
 }
\ No newline at end of file
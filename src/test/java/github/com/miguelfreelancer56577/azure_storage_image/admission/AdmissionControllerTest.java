@@ -0,0 +1,156 @@
+package github.com.miguelfreelancer56577.azure_storage_image.admission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+
+import github.com.miguelfreelancer56577.azure_storage_image.config.BlobProperties;
+import github.com.miguelfreelancer56577.azure_storage_image.exception.BlobException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Suit of Test Cases for AdmissionController
+ *
+ * limitTest: the requests beyond the limit are rejected with 503 until a permit is released
+ * clientTest: the requests of a client beyond per-client-limit are rejected with 429
+ * uploadBudgetTest: the uploads beyond the budget are rejected, a single upload bigger than the budget is admitted
+ * adjustTest: the limit is cut when azure is slow and grows when the requests reach it
+ * operationsTest: the slow calls of the operations which aren't in latency-operations don't cut the limit
+ *
+ * @author mangelt
+ *
+ */
+public class AdmissionControllerTest
+{
+
+	BlobProperties.Admission settings;
+
+	MeterRegistry latencies;
+
+	AdmissionController admissionController;
+
+	@Before
+	public void setUp()
+	{
+		this.settings = new BlobProperties.Admission();
+		this.settings.setInitialLimit(4);
+		this.settings.setMinLimit(2);
+		this.settings.setMaxLimit(8);
+		this.settings.setPerClientLimit(2);
+		this.settings.setUploadBudget(100);
+		this.settings.setLatencyTarget(Duration.ofMillis(100));
+		this.settings.setDecreaseRatio(0.5);
+
+		this.latencies = new SimpleMeterRegistry();
+		this.admissionController = new AdmissionController(this.settings, 50, this.latencies, new SimpleMeterRegistry());
+	}
+
+	/**
+	 * the requests beyond the limit are rejected with 503 until a permit is released
+	 */
+	@Test
+	public void limitTest()
+	{
+		AdmissionController.Permit first = this.admissionController.acquire("a", 0);
+		this.admissionController.acquire("b", 0);
+		this.admissionController.acquire("c", 0);
+		this.admissionController.acquire("d", 0);
+
+		this.assertRejected(HttpStatus.SERVICE_UNAVAILABLE, "e", 0);
+
+		first.release();
+		first.release();
+
+		this.admissionController.acquire("e", 0);
+		this.assertRejected(HttpStatus.SERVICE_UNAVAILABLE, "f", 0);
+	}
+
+	/**
+	 * the requests of a client beyond per-client-limit are rejected with 429
+	 */
+	@Test
+	public void clientTest()
+	{
+		AdmissionController.Permit first = this.admissionController.acquire("a", 0);
+		this.admissionController.acquire("a", 0);
+
+		this.assertRejected(HttpStatus.TOO_MANY_REQUESTS, "a", 0);
+		this.admissionController.acquire("b", 0);
+
+		first.release();
+		this.admissionController.acquire("a", 0);
+	}
+
+	/**
+	 * the uploads beyond the budget are rejected, a single upload bigger than the budget is admitted
+	 */
+	@Test
+	public void uploadBudgetTest()
+	{
+		AdmissionController.Permit big = this.admissionController.acquire("a", 500);
+		this.assertRejected(HttpStatus.SERVICE_UNAVAILABLE, "b", 1);
+		big.release();
+
+		this.admissionController.acquire("a", 40);
+		this.admissionController.acquire("b", -1);
+		this.assertRejected(HttpStatus.SERVICE_UNAVAILABLE, "c", 20);
+		this.admissionController.acquire("c", 10);
+	}
+
+	/**
+	 * the limit is cut when azure is slow and grows when the requests reach it
+	 */
+	@Test
+	public void adjustTest()
+	{
+		for (int i = 0; i < 4; i++)
+		{
+			this.admissionController.acquire(String.valueOf(i), 0);
+		}
+
+		this.admissionController.adjust();
+		assertEquals(5, this.admissionController.limit());
+
+		this.latencies.timer("blob.azure.calls", "operation", "downloadRange").record(300, TimeUnit.MILLISECONDS);
+		this.admissionController.adjust();
+		assertEquals(2, this.admissionController.limit());
+
+		this.admissionController.adjust();
+		assertEquals(3, this.admissionController.limit());
+	}
+
+	/**
+	 * the slow calls of the operations which aren't in latency-operations don't cut the limit
+	 */
+	@Test
+	public void operationsTest()
+	{
+		this.latencies.timer("blob.azure.calls", "operation", "uploadBlock").record(3, TimeUnit.SECONDS);
+		this.latencies.timer("blob.azure.calls", "operation", "list").record(3, TimeUnit.SECONDS);
+		this.latencies.timer("blob.azure.calls", "operation", "downloadAttributes").record(20, TimeUnit.MILLISECONDS);
+		this.admissionController.adjust();
+
+		assertEquals(4, this.admissionController.limit());
+	}
+
+	protected void assertRejected(HttpStatus status, String client, long uploadLength)
+	{
+		try
+		{
+			this.admissionController.acquire(client, uploadLength);
+			fail("The request was admitted");
+		}
+		catch (BlobException e)
+		{
+			assertEquals(status, e.getStatus());
+		}
+	}
+
+}
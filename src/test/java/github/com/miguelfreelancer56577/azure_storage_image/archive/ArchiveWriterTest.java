@@ -0,0 +1,210 @@
+package github.com.miguelfreelancer56577.azure_storage_image.archive;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+
+import github.com.miguelfreelancer56577.azure_storage_image.exception.BlobException;
+import github.com.miguelfreelancer56577.azure_storage_image.store.BlobInfo;
+
+/**
+ * Suit of Test Cases for ArchiveWriter
+ *
+ * tarTest: the ustar headers have the name, length and checksum of each blob file and the content is padded to blocks
+ * splitNameTest: the long names are split at a slash between the prefix and name fields
+ * zipTest: the ZIP archive is read back with the same names and contents
+ * closeTest: a ZIP writer can be closed before the archive is finished
+ *
+ * @author mangelt
+ *
+ */
+public class ArchiveWriterTest
+{
+
+	DataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+	/**
+	 * the ustar headers have the name, length and checksum of each blob file and the content is padded to blocks
+	 */
+	@Test
+	public void tarTest() throws IOException
+	{
+		byte[] first = "first blob file".getBytes(StandardCharsets.UTF_8);
+		byte[] second = new byte[TarArchiveWriter.BLOCK];
+		Arrays.fill(second, (byte)7);
+
+		byte[] archive = this.write(new TarArchiveWriter(this.bufferFactory), "first.txt", first, "second.bin", second);
+
+		assertEquals(TarArchiveWriter.BLOCK * 6, archive.length);
+
+		this.assertHeader(archive, 0, "first.txt", first.length);
+		assertArrayEquals(first, Arrays.copyOfRange(archive, TarArchiveWriter.BLOCK, TarArchiveWriter.BLOCK + first.length));
+		assertArrayEquals(new byte[TarArchiveWriter.BLOCK - first.length],
+				Arrays.copyOfRange(archive, TarArchiveWriter.BLOCK + first.length, TarArchiveWriter.BLOCK * 2));
+
+		this.assertHeader(archive, TarArchiveWriter.BLOCK * 2, "second.bin", second.length);
+		assertArrayEquals(second, Arrays.copyOfRange(archive, TarArchiveWriter.BLOCK * 3, TarArchiveWriter.BLOCK * 4));
+
+		assertArrayEquals(new byte[TarArchiveWriter.BLOCK * 2], Arrays.copyOfRange(archive, TarArchiveWriter.BLOCK * 4, archive.length));
+	}
+
+	/**
+	 * the long names are split at a slash between the prefix and name fields
+	 */
+	@Test
+	public void splitNameTest()
+	{
+		TarArchiveWriter writer = new TarArchiveWriter(this.bufferFactory);
+		String directory = this.repeat('d', 120);
+		String file = this.repeat('f', 90);
+
+		byte[] header = new byte[TarArchiveWriter.BLOCK];
+		writer.splitName(directory + "/" + file, header);
+
+		assertEquals(file, this.field(header, 0, 100));
+		assertEquals(directory, this.field(header, 345, 155));
+
+		try
+		{
+			writer.splitName(this.repeat('n', 101), new byte[TarArchiveWriter.BLOCK]);
+			fail("A name without slashes longer than 100 bytes was written");
+		}
+		catch (BlobException e)
+		{
+			assertEquals(HttpStatus.BAD_REQUEST, e.getStatus());
+		}
+	}
+
+	/**
+	 * the ZIP archive is read back with the same names and contents
+	 */
+	@Test
+	public void zipTest() throws IOException
+	{
+		byte[] first = "first blob file".getBytes(StandardCharsets.UTF_8);
+		byte[] second = new byte[100000];
+		Arrays.fill(second, (byte)7);
+
+		ZipArchiveWriter writer = new ZipArchiveWriter(this.bufferFactory, 6);
+		byte[] archive = this.write(writer, "first.txt", first, "images/second.bin", second);
+		writer.close();
+
+		try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive)))
+		{
+			this.assertEntry(zip, "first.txt", first);
+			this.assertEntry(zip, "images/second.bin", second);
+			assertNull(zip.getNextEntry());
+		}
+	}
+
+	/**
+	 * a ZIP writer can be closed before the archive is finished
+	 */
+	@Test
+	public void closeTest() throws IOException
+	{
+		ZipArchiveWriter writer = new ZipArchiveWriter(this.bufferFactory, 9);
+		writer.write(this.blob("first.txt", 10));
+		writer.write(this.bufferFactory.wrap(new byte[5]));
+
+		writer.close();
+		writer.close();
+	}
+
+	protected byte[] write(ArchiveWriter writer, String firstName, byte[] first, String secondName, byte[] second) throws IOException
+	{
+		ByteArrayOutputStream archive = new ByteArrayOutputStream();
+
+		this.append(archive, writer.write(this.blob(firstName, first.length)));
+		this.append(archive, writer.write(this.bufferFactory.wrap(first)));
+		this.append(archive, writer.write(this.blob(secondName, second.length)));
+		this.append(archive, writer.write(this.bufferFactory.wrap(Arrays.copyOfRange(second, 0, second.length / 2))));
+		this.append(archive, writer.write(this.bufferFactory.wrap(Arrays.copyOfRange(second, second.length / 2, second.length))));
+		this.append(archive, writer.finish());
+
+		return archive.toByteArray();
+	}
+
+	protected void append(ByteArrayOutputStream archive, DataBuffer buffer)
+	{
+		byte[] bytes = new byte[buffer.readableByteCount()];
+		buffer.read(bytes);
+		archive.write(bytes, 0, bytes.length);
+	}
+
+	protected BlobInfo blob(String name, long length)
+	{
+		return BlobInfo.builder()
+				.name(name)
+				.length(length)
+				.lastModified(1560000000000L)
+				.build();
+	}
+
+	protected void assertHeader(byte[] archive, int offset, String name, long length)
+	{
+		byte[] header = Arrays.copyOfRange(archive, offset, offset + TarArchiveWriter.BLOCK);
+
+		assertEquals(name, this.field(header, 0, 100));
+		assertEquals(length, Long.parseLong(this.field(header, 124, 12), 8));
+		assertEquals(1560000000L, Long.parseLong(this.field(header, 136, 12), 8));
+		assertEquals("ustar", this.field(header, 257, 6));
+		assertEquals('0', header[156]);
+
+		long checksum = Long.parseLong(this.field(header, 148, 8).trim(), 8);
+		Arrays.fill(header, 148, 156, (byte)' ');
+		long sum = 0;
+		for (byte b : header)
+		{
+			sum += b & 0xff;
+		}
+		assertEquals(sum, checksum);
+	}
+
+	protected void assertEntry(ZipInputStream zip, String name, byte[] content) throws IOException
+	{
+		ZipEntry entry = zip.getNextEntry();
+		assertEquals(name, entry.getName());
+
+		ByteArrayOutputStream read = new ByteArrayOutputStream();
+		byte[] chunk = new byte[8192];
+		for (int n; (n = zip.read(chunk)) != -1;)
+		{
+			read.write(chunk, 0, n);
+		}
+		assertArrayEquals(content, read.toByteArray());
+	}
+
+	protected String field(byte[] header, int offset, int length)
+	{
+		int end = offset;
+		while (end < offset + length && header[end] != 0)
+		{
+			end++;
+		}
+		return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+	}
+
+	protected String repeat(char c, int times)
+	{
+		char[] chars = new char[times];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+
+}
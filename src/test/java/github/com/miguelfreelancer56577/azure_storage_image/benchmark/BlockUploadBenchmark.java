@@ -0,0 +1,98 @@
+package github.com.miguelfreelancer56577.azure_storage_image.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.microsoft.azure.storage.CloudStorageAccount;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+
+import github.com.miguelfreelancer56577.azure_storage_image.blob.StorageResource;
+
+/**
+ * Throughput of the parallel block upload against a local Azurite emulator,
+ * for each block size and number of threads.
+ *
+ * Each operation uploads a file of fileSize MB, so the MB/s are the ops/s multiplied by fileSize.
+ *
+ * The connection string is taken from the azurite.connection system property,
+ * by default the development storage of Azurite on 127.0.0.1:10000 is used.
+ *
+ * @author mangelt
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BlockUploadBenchmark
+{
+
+	@Param({"262144", "1048576", "4194304", "8388608"})
+	int blockSize;
+
+	@Param({"1", "4", "8", "16"})
+	int concurrency;
+
+	@Param({"32"})
+	int fileSize;
+
+	File file;
+
+	ExecutorService executor;
+
+	StorageResource sr;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception
+	{
+		CloudBlobContainer container = CloudStorageAccount
+				.parse(System.getProperty("azurite.connection", "UseDevelopmentStorage=true"))
+				.createCloudBlobClient()
+				.getContainerReference("benchmark");
+		container.createIfNotExists();
+
+		byte[] content = new byte[this.fileSize * 1024 * 1024];
+		new Random(7).nextBytes(content);
+		this.file = File.createTempFile("block-upload", ".bin");
+		Files.write(this.file.toPath(), content);
+
+		this.executor = Executors.newFixedThreadPool(this.concurrency);
+		this.sr = new StorageResource(container, "block-upload-" + this.blockSize + "-" + this.concurrency);
+	}
+
+	@Benchmark
+	public void uploadFromFile() throws Exception
+	{
+		this.sr.uploadFromFile(this.file, this.blockSize, this.executor);
+	}
+
+	@TearDown(Level.Trial)
+	public void cleanUp() throws IOException
+	{
+		this.sr.deleteBlob();
+		this.executor.shutdown();
+		Files.deleteIfExists(this.file.toPath());
+	}
+
+}
@@ -0,0 +1,132 @@
+package github.com.miguelfreelancer56577.azure_storage_image.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import github.com.miguelfreelancer56577.azure_storage_image.store.BlobStore;
+import github.com.miguelfreelancer56577.azure_storage_image.store.DedupBlobStore;
+import github.com.miguelfreelancer56577.azure_storage_image.store.FileSystemBlobStore;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Cost of hashing the uploads against the bytes saved by the content addressed store.
+ *
+ * sha256: throughput of SHA-256 over a chunk of chunkSize bytes, the overhead added to each uploaded chunk
+ * upload: time to upload a batch of 64 files of fileSize bytes where duplicateRatio of them repeat
+ * a previous file, with and without dedup, on a local file system store. The bytes written to disk
+ * by each configuration are printed at the end of the trial.
+ *
+ * @author mangelt
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DedupBenchmark
+{
+
+	static final int FILES = 64;
+
+	@Param({"262144"})
+	int fileSize;
+
+	@Param({"0", "0.3", "0.6"})
+	double duplicateRatio;
+
+	@Param({"false", "true"})
+	boolean dedup;
+
+	byte[][] files;
+
+	byte[] chunk;
+
+	Path root;
+
+	BlobStore store;
+
+	long batch;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+	{
+		Random random = new Random(7);
+		this.files = new byte[FILES][];
+
+		for (int i = 0; i < FILES; i++)
+		{
+			if (i > 0 && random.nextDouble() < this.duplicateRatio)
+			{
+				this.files[i] = this.files[random.nextInt(i)];
+			}
+			else
+			{
+				this.files[i] = new byte[this.fileSize];
+				random.nextBytes(this.files[i]);
+			}
+		}
+
+		this.chunk = new byte[64 * 1024];
+		random.nextBytes(this.chunk);
+
+		this.root = Files.createTempDirectory("dedup-benchmark");
+		BlobStore files = new FileSystemBlobStore(this.root, Schedulers.elastic(), 64 * 1024);
+		this.store = this.dedup ? new DedupBlobStore(files, Schedulers.elastic(), 10000) : files;
+	}
+
+	@Benchmark
+	public byte[] sha256() throws Exception
+	{
+		return MessageDigest.getInstance("SHA-256").digest(this.chunk);
+	}
+
+	@Benchmark
+	public void upload()
+	{
+		long id = this.batch++;
+
+		// the batches don't share content, only the duplicates inside a batch are the same file
+		for (byte[] file : this.files)
+		{
+			ByteBuffer.wrap(file).putLong(0, id);
+		}
+
+		Flux.range(0, FILES)
+				.concatMap(i -> this.store.put("batch-" + id + "/" + i + ".png",
+						Flux.just(new DefaultDataBufferFactory().wrap(this.files[i]))))
+				.blockLast();
+	}
+
+	@TearDown(Level.Trial)
+	public void cleanUp() throws IOException
+	{
+		System.out.printf("%nDEDUP %s RATIO %s: %d BYTES WRITTEN FOR %d BATCHES%n", this.dedup, this.duplicateRatio,
+				FileUtils.sizeOfDirectory(this.root.toFile()), this.batch);
+		FileUtils.deleteDirectory(this.root.toFile());
+	}
+
+}
@@ -0,0 +1,160 @@
+package github.com.miguelfreelancer56577.azure_storage_image.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.reactive.function.BodyInserters;
+
+import github.com.miguelfreelancer56577.azure_storage_image.cache.OffHeapBlobCache;
+import github.com.miguelfreelancer56577.azure_storage_image.config.BlobProperties;
+import github.com.miguelfreelancer56577.azure_storage_image.config.BlobProperties.UploadMode;
+import github.com.miguelfreelancer56577.azure_storage_image.handler.ArchiveHandler;
+import github.com.miguelfreelancer56577.azure_storage_image.handler.BlobHandler;
+import github.com.miguelfreelancer56577.azure_storage_image.handler.ImageHandler;
+import github.com.miguelfreelancer56577.azure_storage_image.image.DerivativePipeline;
+import github.com.miguelfreelancer56577.azure_storage_image.image.ImageValidator;
+import github.com.miguelfreelancer56577.azure_storage_image.metrics.BlobMetrics;
+import github.com.miguelfreelancer56577.azure_storage_image.router.BlobRouter;
+import github.com.miguelfreelancer56577.azure_storage_image.store.BlobStore;
+import github.com.miguelfreelancer56577.azure_storage_image.store.FileSystemBlobStore;
+import github.com.miguelfreelancer56577.azure_storage_image.util.MultiPartResource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Time of the requests of the routes, from the multipart body to the response, for an image of fileSize KB.
+ *
+ * upload: POST /upload/{filename} in FILE or STREAMING mode, with the validation of the image
+ * download: GET /download/{filename} with and without the BlobCache
+ *
+ * The handlers are bound to the router without a server and the blob files are kept in a FileSystemBlobStore
+ * in a temporal directory, the renditions are disabled so only the request is measured.
+ *
+ * @author mangelt
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HandlerBenchmark
+{
+
+	@Param({"64", "1024", "8192"})
+	int fileSize;
+
+	@Param({"FILE", "STREAMING"})
+	UploadMode mode;
+
+	@Param({"false", "true"})
+	boolean cache;
+
+	Path root;
+
+	MultiValueMap<String, Object> body;
+
+	WebTestClient client;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+	{
+		byte[] content = new byte[this.fileSize * 1024];
+		new Random(7).nextBytes(content);
+
+		// header of a PNG of 1024x1024, enough for the validation of the upload
+		ByteBuffer.wrap(content)
+				.put(new byte[] {(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n', 0, 0, 0, 13, 'I', 'H', 'D', 'R'})
+				.putInt(1024)
+				.putInt(1024);
+
+		this.body = new LinkedMultiValueMap<>();
+		this.body.set("file", new MultiPartResource(content, "benchmark.png"));
+
+		BlobProperties properties = new BlobProperties();
+		properties.getUpload().setMode(this.mode);
+		properties.getImage().setRenditionSizes(new ArrayList<>());
+
+		this.root = Files.createTempDirectory("handler-benchmark");
+		BlobStore store = new FileSystemBlobStore(this.root, Schedulers.elastic(), 64 * 1024);
+		store.put("stored.png", Flux.just(new DefaultDataBufferFactory().wrap(content))).block();
+
+		BlobMetrics metrics = new BlobMetrics(new SimpleMeterRegistry());
+
+		ImageValidator imageValidator = new ImageValidator();
+		ReflectionTestUtils.setField(imageValidator, "properties", properties);
+		ReflectionTestUtils.setField(imageValidator, "metrics", metrics);
+
+		DerivativePipeline derivativePipeline = new DerivativePipeline();
+		ReflectionTestUtils.setField(derivativePipeline, "properties", properties);
+
+		BlobHandler blobHandler = new BlobHandler();
+		ReflectionTestUtils.setField(blobHandler, "blobStore", store);
+		ReflectionTestUtils.setField(blobHandler, "properties", properties);
+		ReflectionTestUtils.setField(blobHandler, "blobCache", new OffHeapBlobCache(this.cache ? 256L * 1024 * 1024 : 0,
+				16L * 1024 * 1024, 10000));
+		ReflectionTestUtils.setField(blobHandler, "derivativePipeline", derivativePipeline);
+		ReflectionTestUtils.setField(blobHandler, "imageValidator", imageValidator);
+		ReflectionTestUtils.setField(blobHandler, "metrics", metrics);
+
+		this.client = WebTestClient.bindToRouterFunction(new BlobRouter().blobItem(blobHandler, new ImageHandler(), new ArchiveHandler()))
+				.build();
+	}
+
+	@Benchmark
+	public void upload()
+	{
+		this.client.post().uri(BlobRouter.API.concat("/upload/{filename}"), "benchmark.png")
+				.contentType(MediaType.MULTIPART_FORM_DATA)
+				.body(BodyInserters.fromMultipartData(this.body))
+				.exchange()
+				.expectStatus()
+				.isOk();
+	}
+
+	@Benchmark
+	public byte[] download()
+	{
+		return this.client.get().uri(BlobRouter.API.concat("/download/{filename}"), "stored.png")
+				.exchange()
+				.expectStatus()
+				.isOk()
+				.expectBody(byte[].class)
+				.returnResult()
+				.getResponseBody();
+	}
+
+	@TearDown(Level.Trial)
+	public void cleanUp() throws IOException
+	{
+		FileUtils.deleteDirectory(this.root.toFile());
+	}
+
+}
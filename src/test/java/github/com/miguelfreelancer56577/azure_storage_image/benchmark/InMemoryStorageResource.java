@@ -0,0 +1,242 @@
+package github.com.miguelfreelancer56577.azure_storage_image.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.http.HttpStatus;
+
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+
+import github.com.miguelfreelancer56577.azure_storage_image.blob.StorageResource;
+import github.com.miguelfreelancer56577.azure_storage_image.exception.BlobException;
+
+/**
+ * StorageResource whose container is a map in memory, used to measure the code of the service without azure.
+ *
+ * The calls against azure are replaced by copies of byte arrays, the blocks are staged until the block list
+ * is committed and each new content of a blob file gets a new ETag, so the conditional reads behave as in azure.
+ *
+ * @author mangelt
+ *
+ */
+public class InMemoryStorageResource extends StorageResource
+{
+
+	/**
+	 * Content and properties of a blob file of the container
+	 */
+	public static class Blob
+	{
+		final byte[] content;
+
+		final String eTag;
+
+		final long lastModified;
+
+		final String contentType;
+
+		Blob(byte[] content, String eTag, String contentType)
+		{
+			this.content = content;
+			this.eTag = eTag;
+			this.lastModified = System.currentTimeMillis();
+			this.contentType = contentType;
+		}
+	}
+
+	protected static final AtomicLong VERSIONS = new AtomicLong();
+
+	protected final Map<String, Blob> container;
+
+	protected final Map<String, byte[]> staged = new ConcurrentHashMap<>();
+
+	protected volatile Blob attributes;
+
+	/**
+	 * @param container: Map<String, Blob> shared by the resources of the same container
+	 * @param name: String name of the blob file
+	 * @throws StorageException
+	 */
+	public InMemoryStorageResource(Map<String, Blob> container, String name) throws StorageException
+	{
+		super((CloudBlobContainer)null);
+		this.container = container;
+		this.blockBlob = new CloudBlockBlob(URI.create("http://127.0.0.1:10000/devstoreaccount1/benchmark/" + name));
+	}
+
+	@Override
+	public void uploadText(String content)
+	{
+		this.store(content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Override
+	public void uploadFromFile(File sourceFile) throws IOException
+	{
+		this.setContentProperties(sourceFile);
+		this.store(Files.readAllBytes(sourceFile.toPath()));
+	}
+
+	@Override
+	public void uploadFromFile(String content) throws IOException
+	{
+		this.uploadFromFile(this.getTmpFile(content));
+	}
+
+	@Override
+	public void uploadBlock(String blockId, byte[] data)
+	{
+		this.staged.put(blockId, data);
+	}
+
+	@Override
+	public void commitBlockList(List<String> blockIds, String contentMd5) throws IOException
+	{
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+		for (String blockId : blockIds)
+		{
+			byte[] block = this.staged.remove(blockId);
+			if (block == null)
+			{
+				throw new IOException("THE BLOCK " + blockId + " WASN'T UPLOADED");
+			}
+			content.write(block);
+		}
+
+		this.store(content.toByteArray());
+	}
+
+	@Override
+	public boolean existsBlob()
+	{
+		return this.container.containsKey(this.blockBlob.getName());
+	}
+
+	@Override
+	public boolean fetchAttributes()
+	{
+		this.attributes = this.container.get(this.blockBlob.getName());
+		return this.attributes != null;
+	}
+
+	@Override
+	public long contentLength()
+	{
+		return this.attributes.content.length;
+	}
+
+	@Override
+	public long lastModified()
+	{
+		return this.attributes.lastModified;
+	}
+
+	@Override
+	public String eTag()
+	{
+		return this.attributes.eTag;
+	}
+
+	@Override
+	public String contentType()
+	{
+		return this.attributes.contentType;
+	}
+
+	@Override
+	protected Attributes attributes()
+	{
+		Blob blob = this.attributes;
+		return new Attributes(blob.content.length, blob.eTag, blob.lastModified, blob.contentType, null);
+	}
+
+	@Override
+	public boolean deleteBlob()
+	{
+		return this.container.remove(this.blockBlob.getName()) != null;
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException
+	{
+		return new ByteArrayInputStream(this.blob().content);
+	}
+
+	@Override
+	public OutputStream getOutputStream()
+	{
+		return new ByteArrayOutputStream()
+		{
+			@Override
+			public void close()
+			{
+				InMemoryStorageResource.this.store(this.toByteArray());
+			}
+		};
+	}
+
+	@Override
+	public List<byte[]> downloadRange(long offset, int length, String eTag, int chunkSize) throws IOException
+	{
+		List<byte[]> chunks = new ArrayList<>();
+
+		for (long position = offset; position < offset + length; position += chunkSize)
+		{
+			chunks.add(this.copyRange(position, (int)Math.min(chunkSize, offset + length - position), eTag));
+		}
+		return chunks;
+	}
+
+	protected byte[] copyRange(long offset, int length, String eTag) throws IOException
+	{
+		Blob blob = this.blob();
+
+		if (eTag != null && !eTag.equals(blob.eTag))
+		{
+			throw new BlobException(HttpStatus.PRECONDITION_FAILED, "The blob file changed while it was read.");
+		}
+		if (offset + length > blob.content.length)
+		{
+			throw new EOFException("THE BLOB ENDS BEFORE THE RANGE " + offset + "-" + (offset + length - 1));
+		}
+
+		byte[] buffer = new byte[length];
+		System.arraycopy(blob.content, (int)offset, buffer, 0, length);
+		return buffer;
+	}
+
+	protected Blob blob() throws FileNotFoundException
+	{
+		Blob blob = this.container.get(this.blockBlob.getName());
+
+		if (blob == null)
+		{
+			throw new FileNotFoundException(this.blockBlob.getName());
+		}
+		return blob;
+	}
+
+	protected void store(byte[] content)
+	{
+		this.container.put(this.blockBlob.getName(), new Blob(content, "\"0x" + Long.toHexString(VERSIONS.incrementAndGet()) + "\"",
+				this.blockBlob.getProperties().getContentType()));
+	}
+
+}
@@ -0,0 +1,139 @@
+package github.com.miguelfreelancer56577.azure_storage_image.benchmark;
+
+import java.net.URI;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+
+import github.com.miguelfreelancer56577.azure_storage_image.blob.StorageResource;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Overhead of the MD5 computed while the blob files are streamed.
+ *
+ * upload: the streamed upload of a blob file of fileSize MB in 64KB buffers, with the blocks kept in memory
+ * instead of sent to azure, with and without the Content-MD5 and the MD5 of each block.
+ * download: the stream of the buffers of a blob file with and without the check of its Content-MD5.
+ *
+ * Without the network the whole time is spent in the pipeline, so the difference between md5 false and true
+ * is the worst case of the overhead, divide it by the time of a real transfer to get the share of the throughput.
+ *
+ * @author mangelt
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class Md5Benchmark
+{
+
+	@Param({"false", "true"})
+	boolean md5;
+
+	@Param({"64"})
+	int fileSize;
+
+	byte[] buffer;
+
+	String contentMd5;
+
+	StorageResource sr;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception
+	{
+		this.buffer = new byte[64 * 1024];
+		new Random(7).nextBytes(this.buffer);
+
+		MessageDigest digest = MessageDigest.getInstance("MD5");
+		for (int i = 0; i < this.buffers(); i++)
+		{
+			digest.update(this.buffer);
+		}
+		this.contentMd5 = Base64.getEncoder().encodeToString(digest.digest());
+
+		this.sr = new LocalStorageResource(new CloudBlockBlob(URI.create("http://127.0.0.1:10000/devstoreaccount1/benchmark/md5")),
+				this.md5);
+	}
+
+	@Benchmark
+	public void upload()
+	{
+		this.sr.uploadFromDataBuffers(this.content(), 4 * 1024 * 1024, 4, Schedulers.immediate())
+				.block();
+	}
+
+	@Benchmark
+	public DataBuffer download()
+	{
+		Flux<DataBuffer> content = this.content();
+
+		return (this.md5 ? StorageResource.verifyMd5(content, this.contentMd5) : content)
+				.blockLast();
+	}
+
+	protected Flux<DataBuffer> content()
+	{
+		return Flux.range(0, this.buffers())
+				.map(i -> new DefaultDataBufferFactory().wrap(this.buffer));
+	}
+
+	protected int buffers()
+	{
+		return this.fileSize * 16;
+	}
+
+	/**
+	 * StorageResource which keeps the blocks in memory, the MD5 of each block is computed as the SDK does
+	 * before sending it
+	 */
+	static class LocalStorageResource extends StorageResource
+	{
+
+		LocalStorageResource(CloudBlockBlob blob, boolean md5)
+		{
+			super((CloudBlobContainer)null);
+			this.blockBlob = blob;
+			this.md5 = md5;
+		}
+
+		@Override
+		public void uploadBlock(String blockId, byte[] data)
+		{
+			if (this.md5)
+			{
+				StorageResource.md5().digest(data);
+			}
+		}
+
+		@Override
+		public void commitBlockList(List<String> blockIds, String contentMd5)
+		{
+		}
+	}
+
+}
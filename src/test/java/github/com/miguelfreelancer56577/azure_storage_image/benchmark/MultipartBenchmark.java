@@ -0,0 +1,138 @@
+package github.com.miguelfreelancer56577.azure_storage_image.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.http.codec.multipart.Part;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import github.com.miguelfreelancer56577.azure_storage_image.util.BlobUtil;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Cost of the steps of BlobUtil used by the uploads in FILE mode, for a file part of fileSize KB.
+ *
+ * getFileFromMultipartData: write of the file part in a temporal file, the file is deleted after each operation
+ * isValidFile: check of the extension of the temporal file against the name of the upload
+ *
+ * @author mangelt
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MultipartBenchmark
+{
+
+	@Param({"64", "1024", "16384"})
+	int fileSize;
+
+	MultiValueMap<String, Part> parts;
+
+	File file;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception
+	{
+		byte[] content = new byte[this.fileSize * 1024];
+		new Random(7).nextBytes(content);
+
+		this.parts = new LinkedMultiValueMap<>();
+		this.parts.add("file", new BytesFilePart("file", "benchmark.png", content));
+
+		this.file = File.createTempFile("benchmark", ".png");
+		this.file.deleteOnExit();
+	}
+
+	@Benchmark
+	public long getFileFromMultipartData() throws Exception
+	{
+		File tmpFile = BlobUtil.getFileFromMultipartData(this.parts).block();
+		long length = tmpFile.length();
+		Files.delete(tmpFile.toPath());
+		return length;
+	}
+
+	@Benchmark
+	public boolean isValidFile()
+	{
+		return BlobUtil.isValidFile("images/benchmark.png", this.file);
+	}
+
+	/**
+	 * FilePart of a multipart request whose content is kept in memory
+	 */
+	static class BytesFilePart implements FilePart
+	{
+		final String name;
+
+		final String filename;
+
+		final byte[] content;
+
+		BytesFilePart(String name, String filename, byte[] content)
+		{
+			this.name = name;
+			this.filename = filename;
+			this.content = content;
+		}
+
+		@Override
+		public String name()
+		{
+			return this.name;
+		}
+
+		@Override
+		public String filename()
+		{
+			return this.filename;
+		}
+
+		@Override
+		public HttpHeaders headers()
+		{
+			HttpHeaders headers = new HttpHeaders();
+			headers.setContentDispositionFormData(this.name, this.filename);
+			return headers;
+		}
+
+		@Override
+		public Flux<DataBuffer> content()
+		{
+			return Flux.just(new DefaultDataBufferFactory().wrap(this.content));
+		}
+
+		@Override
+		public Mono<Void> transferTo(Path dest)
+		{
+			return Mono.fromCallable(() -> Files.write(dest, this.content))
+					.then();
+		}
+	}
+
+}
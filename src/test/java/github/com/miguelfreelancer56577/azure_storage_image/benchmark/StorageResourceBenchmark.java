@@ -0,0 +1,151 @@
+package github.com.miguelfreelancer56577.azure_storage_image.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import github.com.miguelfreelancer56577.azure_storage_image.blob.StorageResource;
+import github.com.miguelfreelancer56577.azure_storage_image.cache.BlobCache;
+import github.com.miguelfreelancer56577.azure_storage_image.cache.OffHeapBlobCache;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Cost of the operations of StorageResource on a blob file of fileSize KB, with the container kept in memory.
+ *
+ * uploadFromFile: block upload of a file with the executor
+ * uploadFromDataBuffers: streamed upload of the file in 64KB buffers
+ * download: ranged download of the whole blob file in 4MB chunks
+ * readBlobFile / readBlobFileCached: read of the blob file as a String, without and with the BlobCache
+ * writeBlobFile: write of the blob file from a String
+ *
+ * No call leaves the process, so the results only depend on the machine and measure the code of the service.
+ *
+ * @author mangelt
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StorageResourceBenchmark
+{
+
+	@Param({"64", "1024", "16384"})
+	int fileSize;
+
+	byte[] content;
+
+	String text;
+
+	File file;
+
+	ExecutorService executor;
+
+	DataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+	BlobCache cache;
+
+	StorageResource sr;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception
+	{
+		this.content = new byte[this.fileSize * 1024];
+		new Random(7).nextBytes(this.content);
+		this.text = new String(this.content, StandardCharsets.ISO_8859_1);
+
+		this.file = File.createTempFile("storage-resource", ".bin");
+		Files.write(this.file.toPath(), this.content);
+
+		this.executor = Executors.newFixedThreadPool(4);
+		this.cache = new OffHeapBlobCache(256L * 1024 * 1024, 32L * 1024 * 1024, 10000);
+
+		Map<String, InMemoryStorageResource.Blob> container = new ConcurrentHashMap<>();
+		this.sr = new InMemoryStorageResource(container, "benchmark.bin");
+		this.sr.uploadFromFile(this.file);
+		this.sr.fetchAttributes();
+	}
+
+	@Benchmark
+	public void uploadFromFile() throws Exception
+	{
+		this.sr.uploadFromFile(this.file, 4 * 1024 * 1024, this.executor);
+	}
+
+	@Benchmark
+	public void uploadFromDataBuffers()
+	{
+		this.sr.uploadFromDataBuffers(this.buffers(), 4 * 1024 * 1024, 4, Schedulers.immediate())
+				.block();
+	}
+
+	@Benchmark
+	public DataBuffer download()
+	{
+		return this.sr.getDataBuffers(this.bufferFactory, 0, this.content.length, 4 * 1024 * 1024, 64 * 1024, 4,
+				Schedulers.immediate())
+				.blockLast();
+	}
+
+	@Benchmark
+	public String readBlobFile()
+	{
+		return this.sr.readBlobFile();
+	}
+
+	@Benchmark
+	public String readBlobFileCached()
+	{
+		return this.sr.readBlobFile(this.cache);
+	}
+
+	@Benchmark
+	public boolean writeBlobFile()
+	{
+		return this.sr.writeBlobFile(this.text);
+	}
+
+	protected Flux<DataBuffer> buffers()
+	{
+		int chunk = 64 * 1024;
+
+		return Flux.range(0, (this.content.length + chunk - 1) / chunk)
+				.map(i -> this.bufferFactory.wrap(ByteBuffer.wrap(this.content, i * chunk, Math.min(chunk, this.content.length - i * chunk))));
+	}
+
+	@TearDown(Level.Trial)
+	public void cleanUp() throws IOException
+	{
+		this.executor.shutdown();
+		Files.deleteIfExists(this.file.toPath());
+	}
+
+}
@@ -0,0 +1,209 @@
+package github.com.miguelfreelancer56577.azure_storage_image.blob;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+
+import github.com.miguelfreelancer56577.azure_storage_image.config.BlobProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+
+/**
+ * Suit of Test Cases for AzureResilience
+ *
+ * circuitTest: the circuit opens after the failures in a row, lets a single probe through and closes when it succeeds
+ * probeFailureTest: the circuit opens again when the probe fails
+ * backOffTest: the waits are random and limited by the max delay
+ * hedgeTest: a slow read is sent again and the first answer is used
+ * retryableTest: only the errors of the connection and the 408, 429 and 5xx answers are retried
+ * interruptedProbeTest: a probe interrupted while it waits to be made again opens the circuit, so a new probe is let through later
+ *
+ * @author mangelt
+ *
+ */
+public class AzureResilienceTest
+{
+
+	BlobProperties.Resilience settings;
+
+	MeterRegistry registry;
+
+	@Before
+	public void setUp()
+	{
+		this.settings = new BlobProperties.Resilience();
+		this.settings.setFailureThreshold(2);
+		this.settings.setOpenDuration(Duration.ofMinutes(1));
+		this.settings.setRetryBaseDelay(Duration.ofMillis(100));
+		this.settings.setRetryMaxDelay(Duration.ofMillis(300));
+		this.settings.setHedgeMinDelay(Duration.ofMillis(10));
+		this.registry = new SimpleMeterRegistry();
+	}
+
+	/**
+	 * the circuit opens after the failures in a row, lets a single probe through and closes when it succeeds
+	 */
+	@Test
+	public void circuitTest()
+	{
+		AzureResilience resilience = new AzureResilience(this.settings, this.registry);
+
+		resilience.onFailure(resilience.before());
+		resilience.onSuccess(resilience.before());
+		resilience.onFailure(resilience.before());
+		assertEquals(AzureResilience.State.CLOSED, resilience.state());
+
+		resilience.onFailure(resilience.before());
+		assertEquals(AzureResilience.State.OPEN, resilience.state());
+		this.assertOpen(resilience);
+
+		this.settings.setOpenDuration(Duration.ZERO);
+		assertTrue(resilience.before());
+		assertEquals(AzureResilience.State.HALF_OPEN, resilience.state());
+		this.assertOpen(resilience);
+
+		resilience.onSuccess(true);
+		assertEquals(AzureResilience.State.CLOSED, resilience.state());
+		assertFalse(resilience.before());
+		assertEquals(1.0, this.registry.get("blob.azure.circuit.transitions").tag("state", "closed").counter().count(), 0);
+	}
+
+	/**
+	 * the circuit opens again when the probe fails
+	 */
+	@Test
+	public void probeFailureTest()
+	{
+		this.settings.setFailureThreshold(1);
+		this.settings.setOpenDuration(Duration.ZERO);
+		AzureResilience resilience = new AzureResilience(this.settings, this.registry);
+
+		resilience.onFailure(resilience.before());
+		assertEquals(AzureResilience.State.OPEN, resilience.state());
+
+		resilience.onFailure(resilience.before());
+		assertEquals(AzureResilience.State.OPEN, resilience.state());
+		assertEquals(2.0, this.registry.get("blob.azure.circuit.transitions").tag("state", "open").counter().count(), 0);
+	}
+
+	/**
+	 * the waits are random and limited by the max delay
+	 */
+	@Test
+	public void backOffTest()
+	{
+		AzureResilience resilience = new AzureResilience(this.settings, this.registry);
+
+		for (int i = 0; i < 100; i++)
+		{
+			assertTrue(resilience.backOff(0) <= 100);
+			assertTrue(resilience.backOff(10) <= 300);
+		}
+	}
+
+	/**
+	 * a slow read is sent again and the first answer is used
+	 */
+	@Test
+	public void hedgeTest()
+	{
+		AzureResilience resilience = new AzureResilience(this.settings, this.registry);
+
+		for (int i = 0; i < AzureResilience.RECALCULATE_EVERY; i++)
+		{
+			resilience.recordRead(TimeUnit.MILLISECONDS.toNanos(10));
+		}
+
+		long start = System.nanoTime();
+		int[] reads = new int[1];
+		Mono<String> read = Mono.defer(() -> ++reads[0] == 1
+				? Mono.just("slow").delayElement(Duration.ofSeconds(5))
+				: Mono.just("fast"));
+
+		assertEquals("fast", resilience.hedge(read).block());
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+		assertEquals(1.0, this.registry.get("blob.azure.hedges").tag("result", "won").counter().count(), 0);
+	}
+
+	/**
+	 * only the errors of the connection and the 408, 429 and 5xx answers are retried
+	 */
+	@Test
+	public void retryableTest()
+	{
+		assertTrue(StorageResource.isRetryable(new IOException(new SocketTimeoutException("Read timed out"))));
+		assertTrue(StorageResource.isRetryable(new StorageException("ServerBusy", "busy", 503, null, null)));
+		assertTrue(StorageResource.isRetryable(new StorageException("Timeout", "timeout", 408, null, null)));
+		assertFalse(StorageResource.isRetryable(new StorageException("BlobNotFound", "not found", 404, null, null)));
+		assertFalse(StorageResource.isRetryable(new FileNotFoundException("upload.tmp")));
+		assertFalse(StorageResource.isRetryable(new IOException("THE BLOCK WASN'T UPLOADED")));
+	}
+
+	/**
+	 * a probe interrupted while it waits to be made again opens the circuit, so a new probe is let through later
+	 */
+	@Test
+	public void interruptedProbeTest() throws StorageException, InterruptedException
+	{
+		this.settings.setOpenDuration(Duration.ofMillis(10));
+		this.settings.setMaxRetries(3);
+		AzureResilience resilience = new AzureResilience(this.settings, this.registry);
+
+		resilience.onFailure(resilience.before());
+		resilience.onFailure(resilience.before());
+		Thread.sleep(20);
+
+		StorageResource sr = new StorageResource((CloudBlobContainer)null);
+		sr.setResilience(resilience);
+		sr.blockBlob = new CloudBlockBlob(URI.create("http://127.0.0.1:10000/devstoreaccount1/test/a.png"));
+
+		try
+		{
+			// as a cancelled read, the thread is interrupted before the wait between the attempts
+			sr.remote("downloadRange", () ->
+			{
+				Thread.currentThread().interrupt();
+				throw new IOException(new SocketTimeoutException("Read timed out"));
+			});
+			fail("The interrupted call didn't fail");
+		}
+		catch (IOException e)
+		{
+			assertTrue(Thread.interrupted());
+		}
+
+		assertEquals(AzureResilience.State.OPEN, resilience.state());
+		Thread.sleep(20);
+		assertTrue(resilience.before());
+	}
+
+	protected void assertOpen(AzureResilience resilience)
+	{
+		try
+		{
+			resilience.before();
+			fail("The call was let through");
+		}
+		catch (CircuitOpenException e)
+		{
+			assertTrue(e.getRetryAfter() >= 1);
+		}
+	}
+
+}
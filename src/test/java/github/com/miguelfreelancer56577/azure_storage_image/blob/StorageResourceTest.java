@@ -0,0 +1,57 @@
+package github.com.miguelfreelancer56577.azure_storage_image.blob;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URI;
+
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+
+import github.com.miguelfreelancer56577.azure_storage_image.exception.BlobException;
+
+/**
+ * Suit of Test Cases for StorageResource
+ *
+ * preconditionTest: a ranged read answered with 412 because the ETag changed fails with a 412 BlobException
+ *
+ * @author mangelt
+ *
+ */
+public class StorageResourceTest
+{
+
+	/**
+	 * a ranged read answered with 412 because the ETag changed fails with a 412 BlobException
+	 */
+	@Test
+	public void preconditionTest() throws StorageException, IOException
+	{
+		StorageResource sr = new StorageResource((CloudBlobContainer)null)
+		{
+			@Override
+			protected <T> T remote(String operation, int retries, Remote<T> remote) throws StorageException
+			{
+				throw new StorageException("ConditionNotMet", "The condition specified using HTTP conditional header(s) is not met.",
+						HttpStatus.PRECONDITION_FAILED.value(), null, null);
+			}
+		};
+		sr.blockBlob = new CloudBlockBlob(URI.create("http://127.0.0.1:10000/devstoreaccount1/test/a.png"));
+
+		try
+		{
+			sr.downloadRange(0, 4, "\"0x1\"", 4);
+			fail("The read of a changed blob file didn't fail");
+		}
+		catch (BlobException e)
+		{
+			assertEquals(HttpStatus.PRECONDITION_FAILED, e.getStatus());
+		}
+	}
+
+}
@@ -0,0 +1,89 @@
+package github.com.miguelfreelancer56577.azure_storage_image.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * Suit of Test Cases for OffHeapBlobCache
+ *
+ * getTest: an entry is returned while its ETag and last modified date don't change
+ * staleTest: an entry with another ETag is removed
+ * evictionTest: the least recently used entries are evicted when the size limit is reached
+ * cacheableTest: the blob files bigger than the max size of an entry are not cacheable
+ *
+ * @author mangelt
+ *
+ */
+public class OffHeapBlobCacheTest
+{
+
+	/**
+	 * an entry is returned while its ETag and last modified date don't change
+	 */
+	@Test
+	public void getTest()
+	{
+		BlobCache cache = new OffHeapBlobCache(1024, 1024, 60000);
+		cache.put("a.png", "\"1\"", 10, new byte[] {1, 2, 3, 4});
+
+		CachedBlob blob = cache.get("a.png", "\"1\"", 10);
+
+		assertNotNull(blob);
+		assertNotNull(cache.getIfFresh("a.png"));
+		assertEquals(ByteBuffer.wrap(new byte[] {2, 3}), blob.slice(1, 2));
+		assertEquals(2, cache.hits());
+	}
+
+	/**
+	 * an entry with another ETag is removed
+	 */
+	@Test
+	public void staleTest()
+	{
+		BlobCache cache = new OffHeapBlobCache(1024, 1024, 60000);
+		cache.put("a.png", "\"1\"", 10, new byte[] {1, 2, 3, 4});
+
+		assertNull(cache.get("a.png", "\"2\"", 10));
+		assertNull(cache.getIfFresh("a.png"));
+		assertEquals(0, cache.usedBytes());
+		assertEquals(1, cache.misses());
+	}
+
+	/**
+	 * the least recently used entries are evicted when the size limit is reached
+	 */
+	@Test
+	public void evictionTest()
+	{
+		BlobCache cache = new OffHeapBlobCache(8, 8, 60000);
+		cache.put("a.png", "\"1\"", 10, new byte[4]);
+		cache.put("b.png", "\"1\"", 10, new byte[4]);
+		cache.get("a.png", "\"1\"", 10);
+		cache.put("c.png", "\"1\"", 10, new byte[4]);
+
+		assertNotNull(cache.getIfFresh("a.png"));
+		assertNull(cache.getIfFresh("b.png"));
+		assertNotNull(cache.getIfFresh("c.png"));
+		assertEquals(1, cache.evictions());
+		assertEquals(8, cache.usedBytes());
+	}
+
+	/**
+	 * the blob files bigger than the max size of an entry are not cacheable
+	 */
+	@Test
+	public void cacheableTest()
+	{
+		assertTrue(new OffHeapBlobCache(1024, 16, 60000).isCacheable(16));
+		assertFalse(new OffHeapBlobCache(1024, 16, 60000).isCacheable(17));
+		assertFalse(new OffHeapBlobCache(0, 16, 60000).isCacheable(0));
+	}
+
+}
@@ -0,0 +1,63 @@
+package github.com.miguelfreelancer56577.azure_storage_image.image;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+/**
+ * Suit of Test Cases for ImageHeader
+ *
+ * formatsTest: read the format and size of the images written by ImageIO
+ * notImageTest: a file which is not an image has no header
+ *
+ * @author mangelt
+ *
+ */
+public class ImageHeaderTest
+{
+
+	/**
+	 * read the format and size of the images written by ImageIO
+	 */
+	@Test
+	public void formatsTest() throws IOException
+	{
+		this.assertHeader("jpg", ImageHeader.Format.JPEG);
+		this.assertHeader("png", ImageHeader.Format.PNG);
+		this.assertHeader("gif", ImageHeader.Format.GIF);
+		this.assertHeader("bmp", ImageHeader.Format.BMP);
+	}
+
+	/**
+	 * a file which is not an image has no header
+	 */
+	@Test
+	public void notImageTest()
+	{
+		byte[] text = "PK this is not an image".getBytes(StandardCharsets.UTF_8);
+
+		assertNull(ImageHeader.read(text, text.length));
+	}
+
+	protected void assertHeader(String extension, ImageHeader.Format format) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(321, 123, BufferedImage.TYPE_INT_RGB), extension, out);
+		byte[] image = out.toByteArray();
+
+		ImageHeader header = ImageHeader.read(image, image.length);
+
+		assertEquals(format, header.getFormat());
+		assertEquals(321, header.getWidth());
+		assertEquals(123, header.getHeight());
+	}
+
+}
@@ -54,6 +54,7 @@ import lombok.extern.slf4j.Slf4j;
  *
  * downloadFileTest: download the specific file from blob storage, must return an 200 status code
  * downloadFileTest1: Call the service to get a file that doesn't exist, must return an 404 status code
+ * reuploadFileTest: Upload a file, download it, upload it again with another content, the download must return the new content
  *
  * Others
  *
@@ -325,6 +326,62 @@ public class BlobRouterTest
 	}
 
 
+	/**
+	 * Upload a file, download it, upload it again with another content, the download must return the new content
+	 */
+	@Test
+	public void reuploadFileTest() throws IOException
+	{
+		List<File> files = (List<File>)cache.get("files");
+		String fileName = "reupload.docx";
+
+		byte[] first = Files.readAllBytes(files.get(0).toPath());
+		byte[] second = Files.readAllBytes(files.get(1).toPath());
+
+		this.upload(fileName, first);
+		String firstETag = this.webTestClient.get().uri(BlobRouter.API.concat("/download/{filename}"), fileName)
+				.exchange()
+				.expectStatus()
+				.isOk()
+				.expectBody(byte[].class)
+				.consumeWith(result -> assertTrue(Arrays.equals(first, result.getResponseBody())))
+				.returnResult()
+				.getResponseHeaders()
+				.getETag();
+
+		log.info("UPLOAD THE {} FILE AGAIN, THE CACHED VERSION MUST BE REPLACED", fileName);
+		this.upload(fileName, second);
+
+		this.webTestClient.get().uri(BlobRouter.API.concat("/download/{filename}"), fileName)
+				.exchange()
+				.expectStatus()
+				.isOk()
+				.expectBody(byte[].class)
+				.consumeWith(result -> assertTrue(Arrays.equals(second, result.getResponseBody())));
+
+		log.info("THE ETAG OF THE FIRST VERSION MUST NOT BE ANSWERED WITH 304");
+		this.webTestClient.get().uri(BlobRouter.API.concat("/download/{filename}"), fileName)
+				.ifNoneMatch(firstETag)
+				.exchange()
+				.expectStatus()
+				.isOk();
+
+		new StorageResource(this.blobContainer, fileName).deleteBlob();
+	}
+
+	protected void upload(String fileName, byte[] content)
+	{
+		MultiValueMap<String, Object> map = new LinkedMultiValueMap<>();
+		map.set("file", new MultiPartResource(content, fileName));
+
+		this.webTestClient.post().uri(BlobRouter.API.concat("/upload/{filename}"), fileName)
+				.contentType(MediaType.MULTIPART_FORM_DATA)
+				.body(BodyInserters.fromMultipartData(map))
+				.exchange()
+				.expectStatus()
+				.is2xxSuccessful();
+	}
+
 	/**
 	 * Clean up, delete files used by the tests
 	 */
@@ -0,0 +1,131 @@
+package github.com.miguelfreelancer56577.azure_storage_image.store;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Suit of Test Cases for CoalescingBlobStore
+ *
+ * sharedReadTest: the readers of a blob file at the same time share a single read
+ * lateReadTest: a reader which arrives after the read ended starts its own read
+ * rangeTest: the ranges and the blob files bigger than the replay are read on their own
+ *
+ * @author mangelt
+ *
+ */
+public class CoalescingBlobStoreTest
+{
+
+	Path root;
+
+	AtomicInteger reads = new AtomicInteger();
+
+	BlobStore store;
+
+	BlobInfo blob;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		this.root = Files.createTempDirectory("blob-coalesce");
+
+		BlobStore files = new FileSystemBlobStore(this.root, Schedulers.elastic(), 4)
+		{
+			@Override
+			public Flux<DataBuffer> getRange(BlobInfo blob, long offset, long count)
+			{
+				CoalescingBlobStoreTest.this.reads.incrementAndGet();
+				return super.getRange(blob, offset, count)
+						.delayElements(Duration.ofMillis(20));
+			}
+		};
+
+		this.store = new CoalescingBlobStore(files, 10, new SimpleMeterRegistry());
+		this.blob = this.store.put("a.png", Flux.just(new DefaultDataBufferFactory().wrap("0123456789".getBytes(StandardCharsets.UTF_8))))
+				.block();
+	}
+
+	@After
+	public void cleanUp() throws IOException
+	{
+		FileUtils.deleteDirectory(this.root.toFile());
+	}
+
+	/**
+	 * the readers of a blob file at the same time share a single read
+	 */
+	@Test
+	public void sharedReadTest()
+	{
+		Flux.merge(this.read(this.store.get(this.blob)), this.read(this.store.get(this.blob)), this.read(this.store.get(this.blob)))
+				.doOnNext(content -> assertEquals("0123456789", content))
+				.blockLast();
+
+		assertEquals(1, this.reads.get());
+	}
+
+	/**
+	 * a reader which arrives after the read ended starts its own read
+	 */
+	@Test
+	public void lateReadTest()
+	{
+		assertEquals("0123456789", this.read(this.store.get(this.blob)).block());
+		assertEquals("0123456789", this.read(this.store.get(this.blob)).block());
+
+		assertEquals(2, this.reads.get());
+	}
+
+	/**
+	 * the ranges and the blob files bigger than the replay are read on their own
+	 */
+	@Test
+	public void rangeTest()
+	{
+		Flux.merge(this.read(this.store.getRange(this.blob, 2, 3)), this.read(this.store.getRange(this.blob, 2, 3)))
+				.doOnNext(content -> assertEquals("234", content))
+				.blockLast();
+
+		assertEquals(2, this.reads.get());
+
+		BlobInfo big = this.store.put("b.png", Flux.just(new DefaultDataBufferFactory().wrap("0123456789A".getBytes(StandardCharsets.UTF_8))))
+				.block();
+
+		Flux.merge(this.read(this.store.get(big)), this.read(this.store.get(big)))
+				.blockLast();
+
+		assertEquals(4, this.reads.get());
+	}
+
+	protected Mono<String> read(Flux<DataBuffer> content)
+	{
+		return DataBufferUtils.join(content)
+				.map(buffer ->
+				{
+					byte[] bytes = new byte[buffer.readableByteCount()];
+					buffer.read(bytes);
+					DataBufferUtils.release(buffer);
+					return new String(bytes, StandardCharsets.UTF_8);
+				});
+	}
+
+}
@@ -0,0 +1,140 @@
+package github.com.miguelfreelancer56577.azure_storage_image.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+/**
+ * Suit of Test Cases for FileSystemBlobStore
+ *
+ * putTest: write a blob file from buffers then read it back
+ * getRangeTest: read a range of a blob file
+ * statTest: a blob file that doesn't exist has no properties
+ * deleteTest: delete a blob file
+ * listTest: list the blob files with a prefix
+ *
+ * @author mangelt
+ *
+ */
+public class FileSystemBlobStoreTest
+{
+
+	Path root;
+
+	BlobStore store;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		this.root = Files.createTempDirectory("blob-store");
+		this.store = new FileSystemBlobStore(this.root, Schedulers.elastic(), 4);
+	}
+
+	@After
+	public void cleanUp() throws IOException
+	{
+		FileUtils.deleteDirectory(this.root.toFile());
+	}
+
+	/**
+	 * write a blob file from buffers then read it back
+	 */
+	@Test
+	public void putTest()
+	{
+		BlobInfo blob = this.store.put("images/a.png", this.content("0123456789")).block();
+
+		assertEquals("images/a.png", blob.getName());
+		assertEquals(10, blob.getLength());
+		assertArrayEquals("0123456789".getBytes(StandardCharsets.UTF_8), this.read(this.store.get(blob)));
+	}
+
+	/**
+	 * read a range of a blob file
+	 */
+	@Test
+	public void getRangeTest()
+	{
+		BlobInfo blob = this.store.put("a.png", this.content("0123456789")).block();
+
+		assertArrayEquals("3456".getBytes(StandardCharsets.UTF_8), this.read(this.store.getRange(blob, 3, 4)));
+	}
+
+	/**
+	 * a blob file that doesn't exist has no properties
+	 */
+	@Test
+	public void statTest()
+	{
+		StepVerifier.create(this.store.stat("missing.png"))
+				.verifyComplete();
+
+		StepVerifier.create(this.store.exists("missing.png"))
+				.expectNext(false)
+				.verifyComplete();
+	}
+
+	/**
+	 * delete a blob file
+	 */
+	@Test
+	public void deleteTest()
+	{
+		this.store.put("a.png", this.content("0123")).block();
+
+		StepVerifier.create(this.store.delete("a.png"))
+				.expectNext(true)
+				.verifyComplete();
+
+		StepVerifier.create(this.store.exists("a.png"))
+				.expectNext(false)
+				.verifyComplete();
+	}
+
+	/**
+	 * list the blob files with a prefix
+	 */
+	@Test
+	public void listTest()
+	{
+		this.store.put("images/a.png", this.content("0123")).block();
+		this.store.put("images/b.png", this.content("0123")).block();
+		this.store.put("docs/c.docx", this.content("0123")).block();
+
+		StepVerifier.create(this.store.list("images/").map(BlobInfo::getName))
+				.expectNext("images/a.png", "images/b.png")
+				.verifyComplete();
+	}
+
+	protected Flux<DataBuffer> content(String text)
+	{
+		return Flux.just(text.substring(0, text.length() / 2), text.substring(text.length() / 2))
+				.map(part -> new DefaultDataBufferFactory().wrap(part.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	protected byte[] read(Flux<DataBuffer> content)
+	{
+		DataBuffer buffer = DataBufferUtils.join(content).block();
+		byte[] bytes = new byte[buffer.readableByteCount()];
+		buffer.read(bytes);
+		DataBufferUtils.release(buffer);
+		return bytes;
+	}
+
+}
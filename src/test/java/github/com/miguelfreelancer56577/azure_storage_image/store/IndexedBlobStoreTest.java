@@ -0,0 +1,212 @@
+package github.com.miguelfreelancer56577.azure_storage_image.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+
+import github.com.miguelfreelancer56577.azure_storage_image.exception.BlobException;
+
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+/**
+ * Suit of Test Cases for IndexedBlobStore
+ *
+ * reconcileTest: the blob files written outside of the index are found after a reconcile
+ * putDeleteTest: the uploads and deletes update the index
+ * snapshotTest: a new index loads the snapshot of the previous one but isn't ready until it's reconciled
+ * fallbackTest: the blob files written or deleted outside of the index between two reconciles are found in the other BlobStore
+ * changedTest: a read answered with 412 because the blob file was replaced outside of the index refreshes its entry
+ * listPageTest: list a page grouped by the delimiter then the next page with the continuation
+ *
+ * @author mangelt
+ *
+ */
+public class IndexedBlobStoreTest
+{
+
+	Path root;
+
+	BlobStore delegate;
+
+	IndexedBlobStore store;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		this.root = Files.createTempDirectory("blob-index");
+		this.delegate = new FileSystemBlobStore(this.root.resolve("blobs"), Schedulers.elastic(), 4);
+		this.store = new IndexedBlobStore(this.delegate, this.root.resolve("index.bin"), Duration.ofHours(1));
+	}
+
+	@After
+	public void cleanUp() throws IOException
+	{
+		FileUtils.deleteDirectory(this.root.toFile());
+	}
+
+	/**
+	 * the blob files written outside of the index are found after a reconcile
+	 */
+	@Test
+	public void reconcileTest()
+	{
+		this.delegate.put("a.png", this.content("0123")).block();
+
+		assertFalse(this.store.isReady());
+
+		this.store.reconcile().block();
+
+		assertTrue(this.store.isReady());
+		StepVerifier.create(this.store.stat("a.png").map(BlobInfo::getLength))
+				.expectNext(4L)
+				.verifyComplete();
+	}
+
+	/**
+	 * the uploads and deletes update the index
+	 */
+	@Test
+	public void putDeleteTest()
+	{
+		this.store.reconcile().block();
+		this.store.put("a.png", this.content("0123")).block();
+
+		StepVerifier.create(this.store.exists("a.png"))
+				.expectNext(true)
+				.verifyComplete();
+
+		this.store.delete("a.png").block();
+
+		StepVerifier.create(this.store.exists("a.png"))
+				.expectNext(false)
+				.verifyComplete();
+	}
+
+	/**
+	 * a new index loads the snapshot of the previous one but isn't ready until it's reconciled
+	 */
+	@Test
+	public void snapshotTest()
+	{
+		this.store.reconcile().block();
+		this.store.put("a.png", this.content("0123")).block();
+		this.store.close();
+
+		this.delegate.put("a.png", this.content("012345")).block();
+
+		IndexedBlobStore loaded = new IndexedBlobStore(this.delegate, this.root.resolve("index.bin"), Duration.ofHours(1));
+		loaded.load();
+
+		assertFalse(loaded.isReady());
+		assertEquals(1, loaded.size());
+		StepVerifier.create(loaded.stat("a.png").map(BlobInfo::getLength))
+				.expectNext(6L)
+				.verifyComplete();
+	}
+
+	/**
+	 * the blob files written or deleted outside of the index between two reconciles are found in the other BlobStore
+	 */
+	@Test
+	public void fallbackTest()
+	{
+		this.store.reconcile().block();
+		this.store.put("a.png", this.content("0123")).block();
+
+		this.delegate.put("b.png", this.content("0123")).block();
+
+		StepVerifier.create(this.store.exists("b.png"))
+				.expectNext(true)
+				.verifyComplete();
+		assertEquals(2, this.store.size());
+
+		this.delegate.delete("a.png").block();
+		this.store.refresh("a.png").block();
+
+		StepVerifier.create(this.store.exists("a.png"))
+				.expectNext(false)
+				.verifyComplete();
+		assertEquals(1, this.store.size());
+	}
+
+	/**
+	 * a read answered with 412 because the blob file was replaced outside of the index refreshes its entry
+	 */
+	@Test
+	public void changedTest()
+	{
+		// the reads send the ETag of the entry as azure does
+		BlobStore conditional = new FileSystemBlobStore(this.root.resolve("blobs"), Schedulers.elastic(), 4)
+		{
+			@Override
+			public Flux<DataBuffer> getRange(BlobInfo blob, long offset, long count)
+			{
+				return this.stat(blob.getName())
+						.flatMapMany(current -> current.getETag().equals(blob.getETag())
+								? super.getRange(blob, offset, count)
+								: Flux.error(new BlobException(HttpStatus.PRECONDITION_FAILED, "The blob file changed while it was read.")));
+			}
+		};
+		IndexedBlobStore store = new IndexedBlobStore(conditional, null, Duration.ofHours(1));
+
+		store.reconcile().block();
+		store.put("a.png", this.content("0123")).block();
+		BlobInfo indexed = store.stat("a.png").block();
+
+		this.delegate.put("a.png", this.content("012345")).block();
+
+		StepVerifier.create(store.getRange(indexed, 0, 4))
+				.verifyErrorMatches(IndexedBlobStore::isChanged);
+		StepVerifier.create(store.stat("a.png").map(BlobInfo::getLength))
+				.expectNext(6L)
+				.verifyComplete();
+		StepVerifier.create(store.get(store.stat("a.png").block()).map(DataBuffer::readableByteCount).reduce(Integer::sum))
+				.expectNext(6)
+				.verifyComplete();
+	}
+
+	/**
+	 * list a page grouped by the delimiter then the next page with the continuation
+	 */
+	@Test
+	public void listPageTest()
+	{
+		this.store.reconcile().block();
+		this.store.put("a.png", this.content("0123")).block();
+		this.store.put("images/b.png", this.content("0123")).block();
+		this.store.put("images/c.png", this.content("0123")).block();
+		this.store.put("z.png", this.content("0123")).block();
+
+		StepVerifier.create(this.store.list(null, "/", 2, null))
+				.expectNextMatches(item -> "a.png".equals(item.getName()))
+				.expectNextMatches(item -> "images/".equals(item.getPrefix()))
+				.expectNextMatches(item -> "images/".equals(item.getContinuation()))
+				.verifyComplete();
+
+		StepVerifier.create(this.store.list(null, "/", 2, "images/"))
+				.expectNextMatches(item -> "z.png".equals(item.getName()))
+				.verifyComplete();
+	}
+
+	protected Flux<DataBuffer> content(String text)
+	{
+		return Flux.just(new DefaultDataBufferFactory().wrap(text.getBytes(StandardCharsets.UTF_8)));
+	}
+
+}
@@ -0,0 +1,61 @@
+package github.com.miguelfreelancer56577.azure_storage_image.store;
+
+import org.junit.Test;
+
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+/**
+ * Suit of Test Cases for Listings
+ *
+ * streamTest: the items of a page are sent before the listing ends
+ * continuationTest: the item after the last one of the page is replaced by the continuation
+ *
+ * @author mangelt
+ *
+ */
+public class ListingsTest
+{
+
+	/**
+	 * the items of a page are sent before the listing ends
+	 */
+	@Test
+	public void streamTest()
+	{
+		Flux<BlobInfo> endless = Flux.concat(Flux.just(this.blob("a.png"), this.blob("b.png")), Flux.never());
+
+		StepVerifier.create(Listings.page(endless, null, null, 10, null).map(ListItem::getName))
+				.expectNext("a.png", "b.png")
+				.thenCancel()
+				.verify();
+	}
+
+	/**
+	 * the item after the last one of the page is replaced by the continuation
+	 */
+	@Test
+	public void continuationTest()
+	{
+		Flux<BlobInfo> blobs = Flux.just(this.blob("a.png"), this.blob("b.png"), this.blob("c.png"));
+
+		StepVerifier.create(Listings.page(blobs, null, null, 2, null))
+				.expectNextMatches(item -> "a.png".equals(item.getName()))
+				.expectNextMatches(item -> "b.png".equals(item.getName()))
+				.expectNextMatches(item -> "b.png".equals(item.getContinuation()))
+				.verifyComplete();
+
+		StepVerifier.create(Listings.page(blobs, null, null, 2, "b.png").map(ListItem::getName))
+				.expectNext("c.png")
+				.verifyComplete();
+	}
+
+	protected BlobInfo blob(String name)
+	{
+		return BlobInfo.builder()
+				.name(name)
+				.length(4)
+				.build();
+	}
+
+}